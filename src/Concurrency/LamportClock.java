@@ -0,0 +1,99 @@
+package Concurrency;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free LamportClock class to implement Lamport Timestamps.
+ * The clock is a single 64-bit counter, reads never block and every write is one atomic update,
+ * so neither the writers nor the ordering checks of secondaries serialize on a lock.
+ * The primary allocates a range of timestamps for a batch at once,
+ * and never takes a timestamp back, an aborted write keeps its own with an abort operation.
+ * A listener is run whenever the clock moves forward, so whoever waits for a timestamp is woken at once.
+ * The timestamps are stored and replicated as ints, narrowed with Math.toIntExact where they are written,
+ * so a write fails once the clock passes their range instead of wrapping around.
+ */
+public class LamportClock {
+    private final AtomicLong value;
+    private volatile Runnable listener;
+
+    /**
+     * Constructor of LamportClock.
+     */
+    public LamportClock() {
+        this.value = new AtomicLong(0);
+    }
+
+    /**
+     * Return the last allocated timestamp.
+     *
+     * @return long
+     */
+    public long get() {
+        return this.value.get();
+    }
+
+    /**
+     * Allocate and return the next timestamp.
+     *
+     * @return long
+     */
+    public long next() {
+        long timestamp = this.value.incrementAndGet();
+        moved();
+
+        return timestamp;
+    }
+
+    /**
+     * Allocate a contiguous range of timestamps.
+     *
+     * @param count
+     * @return long
+     *      - first timestamp of the range
+     */
+    public long allocate(int count) {
+        long first = this.value.getAndAdd(count) + 1;
+        moved();
+
+        return first;
+    }
+
+    /**
+     * Set the value.
+     *
+     * @param value
+     */
+    public void set(long value) {
+        this.value.set(value);
+        moved();
+    }
+
+    /**
+     * Move the value forward, a lower value than the current one is ignored.
+     *
+     * @param value
+     */
+    public void advanceTo(long value) {
+        this.value.accumulateAndGet(value, Math::max);
+        moved();
+    }
+
+    /**
+     * Set the listener to run after the clock moves forward.
+     *
+     * @param listener
+     */
+    public void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Run the listener if there is one.
+     */
+    private void moved() {
+        Runnable listener = this.listener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+}
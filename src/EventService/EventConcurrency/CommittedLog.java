@@ -0,0 +1,640 @@
+package EventService.EventConcurrency;
+
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread-safe CommittedLog data structure to index committed requests by uuid.
+ * The uuid is stored as its two longs in open-addressing tables split into shards,
+ * the timestamp, eventId and commit time are stored in primitive arrays next to it.
+ * Lookups are allocation-free and use optimistic reads, writers only lock one shard.
+ */
+class CommittedLog {
+    private static final int SHARD_BITS = 4;
+    private static final int SHARD_COUNT = 1 << SHARD_BITS;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int VALUE_STRIDE = 3; // timestamp, eventId, commit time in seconds
+    private static final long CLOCK_BASE = System.currentTimeMillis();
+
+    // timestamps start from 1, so these values in the timestamp slot can mark the state of a slot
+    private static final int EMPTY = 0;
+    private static final int DELETED = -1;
+
+    private final Shard[] shards;
+
+    /**
+     * Visitor to walk through the log without exposing the internal arrays.
+     */
+    interface Visitor {
+        void visit(long mostSigBits, long leastSigBits, int timestamp, int eventId);
+    }
+
+    /**
+     * Constructor of CommittedLog.
+     */
+    CommittedLog() {
+        this.shards = new Shard[SHARD_COUNT];
+
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            this.shards[i] = new Shard();
+        }
+    }
+
+    /**
+     * Check if the uuid has been committed.
+     *
+     * @param uuid
+     * @return boolean
+     */
+    boolean contains(String uuid) {
+        return getTimestamp(uuid) != EMPTY;
+    }
+
+    /**
+     * Return the committed timestamp of the uuid.
+     *
+     * @param uuid
+     * @return int
+     *      - 0 if the uuid hasn't been committed
+     */
+    int getTimestamp(String uuid) {
+        long msb = mostSigBits(uuid);
+        long lsb = leastSigBits(uuid);
+
+        return shardOf(msb, lsb).find(msb, lsb, 0);
+    }
+
+    /**
+     * Return the eventId committed with the uuid.
+     *
+     * @param uuid
+     * @return int
+     *      - -1 if the uuid hasn't been committed
+     */
+    int getEventId(String uuid) {
+        long msb = mostSigBits(uuid);
+        long lsb = leastSigBits(uuid);
+        Shard shard = shardOf(msb, lsb);
+
+        return (shard.find(msb, lsb, 0) == EMPTY) ? -1 : shard.find(msb, lsb, 1);
+    }
+
+    /**
+     * Commit the uuid with its timestamp and eventId, overwrite the old one if exists.
+     *
+     * @param uuid
+     * @param timestamp
+     * @param eventId
+     */
+    void put(String uuid, int timestamp, int eventId) {
+        put(mostSigBits(uuid), leastSigBits(uuid), timestamp, eventId);
+    }
+
+    /**
+     * Commit the uuid in the form of two longs.
+     *
+     * @param msb
+     * @param lsb
+     * @param timestamp
+     * @param eventId
+     */
+    void put(long msb, long lsb, int timestamp, int eventId) {
+        shardOf(msb, lsb).put(msb, lsb, timestamp, eventId);
+    }
+
+    /**
+     * Remove the uuid from the log.
+     *
+     * @param uuid
+     */
+    void remove(String uuid) {
+        long msb = mostSigBits(uuid);
+        long lsb = leastSigBits(uuid);
+
+        shardOf(msb, lsb).remove(msb, lsb);
+    }
+
+    /**
+     * Remove the uuid in the form of two longs from the log.
+     *
+     * @param msb
+     * @param lsb
+     */
+    void remove(long msb, long lsb) {
+        shardOf(msb, lsb).remove(msb, lsb);
+    }
+
+    /**
+     * Drop the entries at or below the watermark which were committed before the cutoff.
+     * The dropped entries are passed to the archive visitor if there is one.
+     *
+     * @param watermark
+     * @param cutoff
+     *      - in seconds from now(), entries committed after it are kept for dedup
+     * @param archive
+     * @return int
+     *      - number of dropped entries
+     */
+    int compact(int watermark, int cutoff, Visitor archive) {
+        int dropped = 0;
+
+        for (Shard shard : this.shards) {
+            dropped += shard.compact(watermark, cutoff, archive);
+        }
+
+        return dropped;
+    }
+
+    /**
+     * Remove every entry.
+     */
+    void clear() {
+        for (Shard shard : this.shards) {
+            shard.clear();
+        }
+    }
+
+    /**
+     * Return a copy of the log, one shard at a time under its read lock.
+     * Only the arrays are copied, so it is cheap enough to take under the write lock of EventList.
+     *
+     * @return CommittedLog
+     */
+    CommittedLog copy() {
+        CommittedLog copy = new CommittedLog();
+
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            this.shards[i].copyInto(copy.shards[i]);
+        }
+
+        return copy;
+    }
+
+    /**
+     * Return the number of committed entries.
+     *
+     * @return int
+     */
+    int size() {
+        int size = 0;
+
+        for (Shard shard : this.shards) {
+            size += shard.size();
+        }
+
+        return size;
+    }
+
+    /**
+     * Visit every entry, one shard at a time under its read lock.
+     *
+     * @param visitor
+     */
+    void forEach(Visitor visitor) {
+        for (Shard shard : this.shards) {
+            shard.forEach(visitor);
+        }
+    }
+
+    /**
+     * Return the coarse clock used for commit time, in seconds.
+     *
+     * @return int
+     */
+    static int now() {
+        return (int) ((System.currentTimeMillis() - CLOCK_BASE) / 1000);
+    }
+
+    /**
+     * Format two longs back to the string form of uuid.
+     *
+     * @param msb
+     * @param lsb
+     * @return String
+     */
+    static String toUuid(long msb, long lsb) {
+        return new UUID(msb, lsb).toString();
+    }
+
+    /**
+     * Parse the most significant bits of the uuid without allocation.
+     *
+     * @param uuid
+     * @return long
+     */
+    static long mostSigBits(String uuid) {
+        if (!isCanonical(uuid)) {
+            return UUID.fromString(uuid).getMostSignificantBits();
+        }
+
+        long bits = parseHex(uuid, 0, 8, 0L);
+        bits = parseHex(uuid, 9, 13, bits);
+        return parseHex(uuid, 14, 18, bits);
+    }
+
+    /**
+     * Parse the least significant bits of the uuid without allocation.
+     *
+     * @param uuid
+     * @return long
+     */
+    static long leastSigBits(String uuid) {
+        if (!isCanonical(uuid)) {
+            return UUID.fromString(uuid).getLeastSignificantBits();
+        }
+
+        long bits = parseHex(uuid, 19, 23, 0L);
+        return parseHex(uuid, 24, 36, bits);
+    }
+
+    /**
+     * Check if the uuid is in the 8-4-4-4-12 form created by the front end.
+     *
+     * @param uuid
+     * @return boolean
+     */
+    private static boolean isCanonical(String uuid) {
+        return uuid.length() == 36 && uuid.charAt(8) == '-' && uuid.charAt(13) == '-' &&
+                uuid.charAt(18) == '-' && uuid.charAt(23) == '-';
+    }
+
+    /**
+     * Accumulate hex digits from the string into bits.
+     *
+     * @param s
+     * @param from
+     * @param to
+     * @param bits
+     * @return long
+     */
+    private static long parseHex(String s, int from, int to, long bits) {
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(s.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid uuid: " + s);
+            }
+
+            bits = (bits << 4) | digit;
+        }
+
+        return bits;
+    }
+
+    /**
+     * Spread the bits of uuid into a hash.
+     *
+     * @param msb
+     * @param lsb
+     * @return int
+     */
+    private static int hash(long msb, long lsb) {
+        long h = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Return the shard holding the uuid.
+     *
+     * @param msb
+     * @param lsb
+     * @return Shard
+     */
+    private Shard shardOf(long msb, long lsb) {
+        return this.shards[hash(msb, lsb) & (SHARD_COUNT - 1)];
+    }
+
+    /**
+     * Nested Shard class, an open-addressing table with linear probing.
+     * Slot i keeps the uuid in keys[2i], keys[2i+1]
+     * and the timestamp, eventId, commit time in values[3i], values[3i+1], values[3i+2].
+     */
+    private static class Shard {
+        private final StampedLock lock;
+        private long[] keys;
+        private int[] values;
+        private int size;
+        private int used; // live entries and tombstones
+
+        /**
+         * Constructor of Shard.
+         */
+        private Shard() {
+            this.lock = new StampedLock();
+            allocate(INITIAL_CAPACITY);
+        }
+
+        /**
+         * Find the value of the uuid with an optimistic read, retry with read lock if a writer interfered.
+         *
+         * @param msb
+         * @param lsb
+         * @param field
+         *      - 0 for timestamp, 1 for eventId
+         * @return int
+         */
+        private int find(long msb, long lsb, int field) {
+            long stamp = this.lock.tryOptimisticRead();
+            int value = probe(msb, lsb, field);
+
+            if (!this.lock.validate(stamp)) {
+                stamp = this.lock.readLock();
+                try {
+                    value = probe(msb, lsb, field);
+                }
+                finally {
+                    this.lock.unlockRead(stamp);
+                }
+            }
+
+            return value;
+        }
+
+        /**
+         * Walk the probe sequence. Safe to run without lock, the result is validated by the caller.
+         *
+         * @param msb
+         * @param lsb
+         * @param field
+         * @return int
+         */
+        private int probe(long msb, long lsb, int field) {
+            long[] keys = this.keys;
+            int[] values = this.values;
+            int capacity = keys.length >>> 1;
+
+            if (values.length != capacity * VALUE_STRIDE) {
+                return EMPTY; // torn read during a resize
+            }
+
+            int mask = capacity - 1;
+            int slot = (hash(msb, lsb) >>> SHARD_BITS) & mask;
+
+            for (int i = 0; i < capacity; i++) {
+                int timestamp = values[slot * VALUE_STRIDE];
+
+                if (timestamp == EMPTY) {
+                    return EMPTY;
+                }
+                if (timestamp != DELETED && keys[slot << 1] == msb && keys[(slot << 1) + 1] == lsb) {
+                    return values[slot * VALUE_STRIDE + field];
+                }
+
+                slot = (slot + 1) & mask;
+            }
+
+            return EMPTY;
+        }
+
+        /**
+         * Insert or overwrite the uuid.
+         *
+         * @param msb
+         * @param lsb
+         * @param timestamp
+         * @param eventId
+         */
+        private void put(long msb, long lsb, int timestamp, int eventId) {
+            long stamp = this.lock.writeLock();
+            try {
+                if ((this.used + 1) * 4 > (this.keys.length >>> 1) * 3) {
+                    rehash();
+                }
+
+                int mask = (this.keys.length >>> 1) - 1;
+                int slot = (hash(msb, lsb) >>> SHARD_BITS) & mask;
+                int target = -1;
+
+                while (this.values[slot * VALUE_STRIDE] != EMPTY) {
+                    if (this.values[slot * VALUE_STRIDE] == DELETED) {
+                        if (target < 0) {
+                            target = slot;
+                        }
+                    }
+                    else if (this.keys[slot << 1] == msb && this.keys[(slot << 1) + 1] == lsb) {
+                        this.values[slot * VALUE_STRIDE + 1] = eventId;
+                        this.values[slot * VALUE_STRIDE + 2] = now();
+                        this.values[slot * VALUE_STRIDE] = timestamp;
+                        return;
+                    }
+
+                    slot = (slot + 1) & mask;
+                }
+
+                if (target < 0) {
+                    target = slot;
+                    this.used++;
+                }
+
+                this.keys[target << 1] = msb;
+                this.keys[(target << 1) + 1] = lsb;
+                this.values[target * VALUE_STRIDE + 1] = eventId;
+                this.values[target * VALUE_STRIDE + 2] = now();
+                this.values[target * VALUE_STRIDE] = timestamp;
+                this.size++;
+            }
+            finally {
+                this.lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Mark the slot of the uuid as deleted.
+         *
+         * @param msb
+         * @param lsb
+         */
+        private void remove(long msb, long lsb) {
+            long stamp = this.lock.writeLock();
+            try {
+                int mask = (this.keys.length >>> 1) - 1;
+                int slot = (hash(msb, lsb) >>> SHARD_BITS) & mask;
+
+                while (this.values[slot * VALUE_STRIDE] != EMPTY) {
+                    if (this.values[slot * VALUE_STRIDE] != DELETED &&
+                            this.keys[slot << 1] == msb && this.keys[(slot << 1) + 1] == lsb) {
+                        this.values[slot * VALUE_STRIDE] = DELETED;
+                        this.size--;
+                        return;
+                    }
+
+                    slot = (slot + 1) & mask;
+                }
+            }
+            finally {
+                this.lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Drop every entry and shrink back to the initial capacity.
+         */
+        private void clear() {
+            long stamp = this.lock.writeLock();
+            allocate(INITIAL_CAPACITY);
+            this.lock.unlockWrite(stamp);
+        }
+
+        /**
+         * Return the number of live entries.
+         *
+         * @return int
+         */
+        private int size() {
+            long stamp = this.lock.readLock();
+            int size = this.size;
+            this.lock.unlockRead(stamp);
+
+            return size;
+        }
+
+        /**
+         * Copy the arrays of the shard into another one under the read lock.
+         *
+         * @param shard
+         */
+        private void copyInto(Shard shard) {
+            long stamp = this.lock.readLock();
+            try {
+                shard.keys = this.keys.clone();
+                shard.values = this.values.clone();
+                shard.size = this.size;
+                shard.used = this.used;
+            }
+            finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Visit every live entry under the read lock.
+         *
+         * @param visitor
+         */
+        private void forEach(Visitor visitor) {
+            long stamp = this.lock.readLock();
+            try {
+                for (int slot = 0; slot < this.keys.length >>> 1; slot++) {
+                    int timestamp = this.values[slot * VALUE_STRIDE];
+
+                    if (timestamp != EMPTY && timestamp != DELETED) {
+                        visitor.visit(this.keys[slot << 1], this.keys[(slot << 1) + 1],
+                                timestamp, this.values[slot * VALUE_STRIDE + 1]);
+                    }
+                }
+            }
+            finally {
+                this.lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Mark the old entries as deleted and clean up the tombstones if they take too much space.
+         *
+         * @param watermark
+         * @param cutoff
+         * @param archive
+         * @return int
+         */
+        private int compact(int watermark, int cutoff, Visitor archive) {
+            int dropped = 0;
+
+            long stamp = this.lock.writeLock();
+            try {
+                for (int slot = 0; slot < this.keys.length >>> 1; slot++) {
+                    int timestamp = this.values[slot * VALUE_STRIDE];
+
+                    if (timestamp != EMPTY && timestamp != DELETED && timestamp <= watermark &&
+                            this.values[slot * VALUE_STRIDE + 2] < cutoff) {
+                        if (archive != null) {
+                            archive.visit(this.keys[slot << 1], this.keys[(slot << 1) + 1],
+                                    timestamp, this.values[slot * VALUE_STRIDE + 1]);
+                        }
+
+                        this.values[slot * VALUE_STRIDE] = DELETED;
+                        this.size--;
+                        dropped++;
+                    }
+                }
+
+                if (dropped > 0 && this.used > this.size * 2) {
+                    shrink();
+                }
+            }
+            finally {
+                this.lock.unlockWrite(stamp);
+            }
+
+            return dropped;
+        }
+
+        /**
+         * Rebuild the table with the smallest capacity which keeps it at most half full.
+         * Must be called with the write lock.
+         */
+        private void shrink() {
+            int capacity = INITIAL_CAPACITY;
+            while (this.size * 2 >= capacity) {
+                capacity <<= 1;
+            }
+
+            rebuild(capacity);
+        }
+
+        /**
+         * Grow the table if it is crowded by live entries, otherwise just clean up the tombstones.
+         * Must be called with the write lock.
+         */
+        private void rehash() {
+            int oldCapacity = this.keys.length >>> 1;
+
+            rebuild((this.size * 2 >= oldCapacity) ? oldCapacity * 2 : oldCapacity);
+        }
+
+        /**
+         * Move the live entries into new arrays with the capacity.
+         * Must be called with the write lock.
+         *
+         * @param newCapacity
+         */
+        private void rebuild(int newCapacity) {
+            long[] oldKeys = this.keys;
+            int[] oldValues = this.values;
+            int oldCapacity = oldKeys.length >>> 1;
+
+            allocate(newCapacity);
+            int mask = newCapacity - 1;
+
+            for (int i = 0; i < oldCapacity; i++) {
+                int timestamp = oldValues[i * VALUE_STRIDE];
+                if (timestamp == EMPTY || timestamp == DELETED) {
+                    continue;
+                }
+
+                long msb = oldKeys[i << 1];
+                long lsb = oldKeys[(i << 1) + 1];
+                int slot = (hash(msb, lsb) >>> SHARD_BITS) & mask;
+                while (this.values[slot * VALUE_STRIDE] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+
+                this.keys[slot << 1] = msb;
+                this.keys[(slot << 1) + 1] = lsb;
+                System.arraycopy(oldValues, i * VALUE_STRIDE, this.values, slot * VALUE_STRIDE, VALUE_STRIDE);
+                this.size++;
+                this.used++;
+            }
+        }
+
+        /**
+         * Replace the arrays with empty ones.
+         *
+         * @param capacity
+         */
+        private void allocate(int capacity) {
+            this.keys = new long[capacity << 1];
+            this.values = new int[capacity * VALUE_STRIDE];
+            this.size = 0;
+            this.used = 0;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package EventService.EventConcurrency;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe, append-only journal of the CommittedLog in a memory-mapped file.
+ * Every put or remove of the log is one fixed-size entry, replayed in order on recovery.
+ * Entries are reserved by an atomic counter, so concurrent purchases never block each other,
+ * and the timestamp of an entry is written last to mark it complete.
+ */
+class CommittedLogJournal {
+    private static final int ENTRY_SIZE = 24; // msb, lsb, timestamp, eventId
+    private static final int SEGMENT_SHIFT = 16; // 65536 entries, 1.5MB per segment
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final long SEGMENT_BYTES = (long) ENTRY_SIZE * SEGMENT_SIZE;
+
+    // timestamps start from 1, so these values in the timestamp of an entry mark its kind
+    private static final int EMPTY = 0;
+    private static final int REMOVED = -1;
+
+    private final File file;
+    private final FileChannel channel;
+    private final AtomicInteger next;
+    private volatile MappedByteBuffer[] segments;
+
+    /**
+     * Constructor of CommittedLogJournal, open or create the journal file.
+     *
+     * @param file
+     * @throws IOException
+     */
+    CommittedLogJournal(File file) throws IOException {
+        this.file = file;
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.segments = new MappedByteBuffer[(int) ((this.channel.size() + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+        this.next = new AtomicInteger(0);
+
+        for (int i = 0; i < this.segments.length; i++) {
+            this.segments[i] = map(i);
+        }
+    }
+
+    /**
+     * Replay the journal into the log and return the highest timestamp still committed.
+     * Entries reserved but never completed before a crash are skipped.
+     * Must be called before the journal is shared.
+     *
+     * @param log
+     * @return int
+     */
+    int replay(CommittedLog log) {
+        int count = this.segments.length * SEGMENT_SIZE;
+        int end = 0;
+
+        for (int i = 0; i < count; i++) {
+            MappedByteBuffer segment = this.segments[i >>> SEGMENT_SHIFT];
+            int offset = (i & SEGMENT_MASK) * ENTRY_SIZE;
+            int timestamp = segment.getInt(offset + 16);
+
+            if (timestamp == EMPTY) {
+                continue;
+            }
+
+            if (timestamp == REMOVED) {
+                log.remove(segment.getLong(offset), segment.getLong(offset + 8));
+            }
+            else {
+                log.put(segment.getLong(offset), segment.getLong(offset + 8), timestamp, segment.getInt(offset + 20));
+            }
+            end = i + 1;
+        }
+
+        this.next.set(end);
+
+        int[] last = new int[1];
+        log.forEach((msb, lsb, timestamp, eventId) -> last[0] = Math.max(last[0], timestamp));
+        return last[0];
+    }
+
+    /**
+     * Journal a put of the log.
+     *
+     * @param uuid
+     * @param timestamp
+     * @param eventId
+     */
+    void put(String uuid, int timestamp, int eventId) {
+        write(CommittedLog.mostSigBits(uuid), CommittedLog.leastSigBits(uuid), timestamp, eventId);
+    }
+
+    /**
+     * Journal a remove of the log.
+     *
+     * @param uuid
+     */
+    void remove(String uuid) {
+        write(CommittedLog.mostSigBits(uuid), CommittedLog.leastSigBits(uuid), REMOVED, -1);
+    }
+
+    /**
+     * Return the number of entries in the journal.
+     *
+     * @return int
+     */
+    int size() {
+        return this.next.get();
+    }
+
+    /**
+     * Flush the journal to the disk.
+     */
+    void force() {
+        for (MappedByteBuffer segment : this.segments) {
+            if (segment != null) {
+                segment.force();
+            }
+        }
+    }
+
+    /**
+     * Close the journal file, the mappings stay valid until they are collected.
+     */
+    void close() {
+        try {
+            this.channel.close();
+        }
+        catch (IOException ignored) {}
+    }
+
+    /**
+     * Write the live entries of the log into a new journal file and replace this one with it.
+     * Must be called while no one writes the log or the journal.
+     *
+     * @param log
+     * @return CommittedLogJournal
+     * @throws IOException
+     */
+    CommittedLogJournal rewrite(CommittedLog log) throws IOException {
+        File temp = new File(this.file.getPath() + ".tmp");
+        Files.deleteIfExists(temp.toPath());
+
+        CommittedLogJournal journal = new CommittedLogJournal(temp);
+        log.forEach((msb, lsb, timestamp, eventId) -> journal.write(msb, lsb, timestamp, eventId));
+        journal.force();
+        journal.close();
+        close();
+
+        Files.move(temp.toPath(), this.file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        CommittedLogJournal rewritten = new CommittedLogJournal(this.file);
+        rewritten.next.set(journal.size());
+        return rewritten;
+    }
+
+    /**
+     * Reserve the next entry and write it, the timestamp goes last.
+     *
+     * @param msb
+     * @param lsb
+     * @param timestamp
+     * @param eventId
+     */
+    private void write(long msb, long lsb, int timestamp, int eventId) {
+        int entry = this.next.getAndIncrement();
+        MappedByteBuffer segment = segmentForWrite(entry >>> SEGMENT_SHIFT);
+        int offset = (entry & SEGMENT_MASK) * ENTRY_SIZE;
+
+        segment.putLong(offset, msb);
+        segment.putLong(offset + 8, lsb);
+        segment.putInt(offset + 20, eventId);
+        segment.putInt(offset + 16, timestamp);
+    }
+
+    /**
+     * Return the segment, map it and grow the directory if needed.
+     *
+     * @param segmentIndex
+     * @return MappedByteBuffer
+     */
+    private MappedByteBuffer segmentForWrite(int segmentIndex) {
+        MappedByteBuffer[] segments = this.segments;
+        if (segmentIndex < segments.length && segments[segmentIndex] != null) {
+            return segments[segmentIndex];
+        }
+
+        synchronized (this) {
+            segments = this.segments;
+            if (segmentIndex >= segments.length) {
+                MappedByteBuffer[] newSegments = new MappedByteBuffer[Math.max(segments.length * 2, segmentIndex + 1)];
+                System.arraycopy(segments, 0, newSegments, 0, segments.length);
+                segments = newSegments;
+            }
+            if (segments[segmentIndex] == null) {
+                try {
+                    segments[segmentIndex] = map(segmentIndex);
+                }
+                catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }
+
+            this.segments = segments;
+            return segments[segmentIndex];
+        }
+    }
+
+    /**
+     * Map the segment of the journal file in the native byte order, the file grows if needed.
+     *
+     * @param segmentIndex
+     * @return MappedByteBuffer
+     * @throws IOException
+     */
+    private MappedByteBuffer map(int segmentIndex) throws IOException {
+        MappedByteBuffer segment = this.channel.map(FileChannel.MapMode.READ_WRITE,
+                segmentIndex * SEGMENT_BYTES, SEGMENT_BYTES);
+        segment.order(ByteOrder.nativeOrder());
+
+        return segment;
+    }
+}
@@ -0,0 +1,150 @@
+package EventService.EventConcurrency;
+
+import com.google.gson.JsonArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe CreditOutbox of the committed purchases whose tickets have not been credited to the User Service yet,
+ * ordered by Lamport Timestamp. Every replica keeps one, so a new primary resends what the old one left,
+ * and the User Service drops a credit resent with the same uuid.
+ * It lives with the data of EventList: a purchase enters it when committed or replayed,
+ * a delivered credit leaves it with a credit entry in the write-ahead log, and snapshots and full backups carry it.
+ */
+class CreditOutbox {
+    private final ConcurrentSkipListMap<Integer, Operation> pending; // timestamp -> purchase
+    private final ReentrantLock lock; // only to wake up the dispatcher
+    private final Condition added;
+
+    /**
+     * Constructor of CreditOutbox.
+     */
+    CreditOutbox() {
+        this.pending = new ConcurrentSkipListMap<>();
+        this.lock = new ReentrantLock();
+        this.added = this.lock.newCondition();
+    }
+
+    /**
+     * Add the credit of a committed purchase and wake up the dispatcher.
+     *
+     * @param purchase
+     */
+    void add(Operation purchase) {
+        this.pending.put(purchase.getTimestamp(), purchase);
+
+        this.lock.lock();
+        try {
+            this.added.signalAll();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the credit of the purchase, if the timestamp still belongs to its uuid.
+     *
+     * @param timestamp
+     * @param uuid
+     * @return boolean
+     *      - false if it is not pending
+     */
+    boolean remove(int timestamp, String uuid) {
+        Operation purchase = this.pending.get(timestamp);
+        return purchase != null && purchase.getUuid().equals(uuid) && this.pending.remove(timestamp, purchase);
+    }
+
+    /**
+     * Return the oldest pending credits, wait for one if there is none.
+     *
+     * @param max
+     * @param timeout
+     *      - in milliseconds
+     * @return List
+     *      - empty if nothing came within the timeout
+     * @throws InterruptedException
+     */
+    List<Operation> poll(int max, long timeout) throws InterruptedException {
+        if (this.pending.isEmpty()) {
+            this.lock.lock();
+            try {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+                while (this.pending.isEmpty() && nanos > 0) {
+                    nanos = this.added.awaitNanos(nanos);
+                }
+            }
+            finally {
+                this.lock.unlock();
+            }
+        }
+
+        List<Operation> credits = new ArrayList<>();
+        for (Operation purchase : this.pending.values()) {
+            if (credits.size() == max) {
+                break;
+            }
+            credits.add(purchase);
+        }
+
+        return credits;
+    }
+
+    /**
+     * Return the highest timestamp at or below which every credit has been delivered.
+     *
+     * @param current
+     *      - current Lamport Timestamp
+     * @return int
+     */
+    int getCredited(int current) {
+        Map.Entry<Integer, Operation> first = this.pending.firstEntry();
+        return (first == null) ? current : Math.min(current, first.getKey() - 1);
+    }
+
+    /**
+     * Drop the credits at or below the timestamp, delivered by the primary.
+     *
+     * @param timestamp
+     */
+    void dropThrough(int timestamp) {
+        this.pending.headMap(timestamp, true).clear();
+    }
+
+    /**
+     * Drop every credit, when the data is replaced by a restore.
+     */
+    void clear() {
+        this.pending.clear();
+    }
+
+    /**
+     * Return a copy of the pending credits, exact under the write lock of EventList.
+     *
+     * @return List
+     */
+    List<Operation> copy() {
+        return new ArrayList<>(this.pending.values());
+    }
+
+    /**
+     * Return the pending credits in the JSON format of Operation.
+     *
+     * @return JsonArray
+     */
+    JsonArray toJsonArray() {
+        JsonArray array = new JsonArray();
+
+        for (Operation purchase : this.pending.values()) {
+            array.add(purchase.toJsonObject());
+        }
+
+        return array;
+    }
+}
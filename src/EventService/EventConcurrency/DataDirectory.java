@@ -0,0 +1,164 @@
+package EventService.EventConcurrency;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * DataDirectory class to keep the persistent files of EventList.
+ * The events and the journal of the committed log live in a generation directory,
+ * a restore from a full backup writes a new generation and switches to it only when it is complete.
+ * A small mapped meta file keeps the current generation, and the Lamport Timestamp and watermark of the last checkpoint.
+ */
+class DataDirectory {
+    private static final String META = "meta.dat";
+    private static final String JOURNAL = "committed.log";
+    private static final int MAGIC = 0x45564e54; // "EVNT"
+    private static final int META_SIZE = 16;
+
+    // layout of the meta file
+    private static final int MAGIC_OFFSET = 0;
+    private static final int GENERATION = 4;
+    private static final int TIMESTAMP = 8;
+    private static final int WATERMARK = 12;
+
+    private final File root;
+    private final MappedByteBuffer meta;
+
+    /**
+     * Constructor of DataDirectory, create the directory and the meta file if they don't exist.
+     *
+     * @param path
+     * @throws IOException
+     */
+    DataDirectory(String path) throws IOException {
+        this.root = new File(path);
+        if (!this.root.isDirectory() && !this.root.mkdirs()) {
+            throw new IOException("Unable to create data directory " + path);
+        }
+
+        try (FileChannel channel = new RandomAccessFile(new File(this.root, META), "rw").getChannel()) {
+            this.meta = channel.map(FileChannel.MapMode.READ_WRITE, 0, META_SIZE);
+        }
+
+        if (this.meta.getInt(MAGIC_OFFSET) != MAGIC) {
+            this.meta.putInt(GENERATION, 0);
+            this.meta.putInt(TIMESTAMP, 0);
+            this.meta.putInt(WATERMARK, 0);
+            this.meta.putInt(MAGIC_OFFSET, MAGIC);
+            this.meta.force();
+        }
+    }
+
+    /**
+     * Return the current generation.
+     *
+     * @return int
+     */
+    synchronized int getGeneration() {
+        return this.meta.getInt(GENERATION);
+    }
+
+    /**
+     * Return the Lamport Timestamp of the last checkpoint.
+     *
+     * @return int
+     */
+    synchronized int getTimestamp() {
+        return this.meta.getInt(TIMESTAMP);
+    }
+
+    /**
+     * Return the watermark of the last checkpoint.
+     *
+     * @return int
+     */
+    synchronized int getWatermark() {
+        return this.meta.getInt(WATERMARK);
+    }
+
+    /**
+     * Return the directory of the generation, create it if it doesn't exist.
+     * A fresh directory is emptied first, so a restore interrupted by a crash leaves nothing behind.
+     *
+     * @param generation
+     * @param fresh
+     * @return File
+     * @throws IOException
+     */
+    File generationDir(int generation, boolean fresh) throws IOException {
+        File dir = new File(this.root, String.valueOf(generation));
+
+        if (fresh) {
+            delete(dir);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create data directory " + dir.getPath());
+        }
+
+        return dir;
+    }
+
+    /**
+     * Return the journal file of the committed log in the generation directory.
+     *
+     * @param dir
+     * @return File
+     */
+    File journalFile(File dir) {
+        return new File(dir, JOURNAL);
+    }
+
+    /**
+     * Record the Lamport Timestamp and watermark of a checkpoint.
+     *
+     * @param timestamp
+     * @param watermark
+     */
+    synchronized void checkpoint(int timestamp, int watermark) {
+        this.meta.putInt(TIMESTAMP, timestamp);
+        this.meta.putInt(WATERMARK, watermark);
+        this.meta.force();
+    }
+
+    /**
+     * Switch to a complete generation and delete the others.
+     *
+     * @param generation
+     * @param timestamp
+     * @param watermark
+     */
+    synchronized void switchGeneration(int generation, int timestamp, int watermark) {
+        this.meta.putInt(GENERATION, generation);
+        this.meta.putInt(TIMESTAMP, timestamp);
+        this.meta.putInt(WATERMARK, watermark);
+        this.meta.force();
+
+        File[] dirs = this.root.listFiles(File::isDirectory);
+        if (dirs != null) {
+            for (File dir : dirs) {
+                if (!dir.getName().equals(String.valueOf(generation))) {
+                    delete(dir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the file or the directory with its content.
+     *
+     * @param file
+     */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}
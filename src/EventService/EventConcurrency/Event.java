@@ -5,20 +5,65 @@ import EventService.MultithreadingProcess.FullBackup;
 import Usage.State;
 import com.google.gson.JsonObject;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * Thread-safe Event class.
+ * The avail and purchased counters are packed into one word updated by compare-and-set,
+ * so buyers of the same event never block each other.
+ * When the compare-and-set keeps failing, the event is hot and its available tickets are split into
+ * InventoryStripes until it cools down.
+ * An Event is either kept on heap, or is a view over a record of OffHeapEventTable.
+ * A view is created per lookup and keeps nothing but the record, so only an event on heap is split.
  */
 public class Event {
-    private final ReentrantReadWriteLock lock;
+    private static final AtomicLongFieldUpdater<Event> INVENTORY =
+            AtomicLongFieldUpdater.newUpdater(Event.class, "inventory");
+    private static final AtomicIntegerFieldUpdater<Event> CONTENTION =
+            AtomicIntegerFieldUpdater.newUpdater(Event.class, "contention");
+    private static final AtomicReferenceFieldUpdater<Event, InventoryStripes> STRIPES =
+            AtomicReferenceFieldUpdater.newUpdater(Event.class, InventoryStripes.class, "stripes");
+    private static final long HOT_WINDOW = 100_000_000L; // 100 milliseconds
+    private static final int HOT_CONTENTION = 64; // failed compare-and-sets in a window to split the inventory
+    private static final String AVAIL_KEY = "\"avail\":";
+    private static final byte[] PURCHASED_KEY = ",\"purchased\":".getBytes(StandardCharsets.US_ASCII);
+
+    private final OffHeapEventTable store; // null for the events on heap
     private final int eventId;
-    private final String eventName;
+    private volatile String eventName; // decoded on first use for a view
     private final int createUserId;
     private final int numtickets;
-    private int avail;
-    private int purchased;
+    private volatile long inventory; // high 32 bits: avail, low 32 bits: purchased, unused for a view
+    private volatile InventoryStripes stripes; // null unless the event is hot
+    private volatile int contention; // failed compare-and-sets in the current window
+    private volatile long contentionWindow;
+    private volatile byte[] prefix; // encoded immutable part, up to "avail":
+    private volatile Encoded encoded; // last encoded response and the inventory it was encoded from
+
+    /**
+     * Immutable pair of inventory and its encoded response.
+     */
+    private static class Encoded {
+        private final long inventory;
+        private final byte[] bytes;
+
+        /**
+         * Constructor of Encoded.
+         *
+         * @param inventory
+         * @param bytes
+         */
+        private Encoded(long inventory, byte[] bytes) {
+            this.inventory = inventory;
+            this.bytes = bytes;
+        }
+    }
 
     /**
      * Builder pattern to create an Event class with part of immutable data.
@@ -101,87 +146,734 @@ public class Event {
      * @param eb
      */
     private Event(EventBuilder eb) {
-        this.lock = new ReentrantReadWriteLock();
+        this.store = null;
         this.eventId = eb.eventId;
         this.eventName = eb.eventName;
         this.createUserId = eb.createUserId;
         this.numtickets = eb.numtickets;
-        this.purchased = eb.purchased;
-        this.avail = this.numtickets - this.purchased;
+        this.inventory = pack(this.numtickets - eb.purchased, eb.purchased);
     }
 
     /**
-     * Synchronized purchase method to check availability and purchase.
+     * Constructor of a view over the record of the event in the off-heap store.
      *
+     * @param store
+     * @param eventId
+     */
+    Event(OffHeapEventTable store, int eventId) {
+        this.store = store;
+        this.eventId = eventId;
+        this.createUserId = store.getCreateUserId(eventId);
+        this.numtickets = store.getNumtickets(eventId);
+    }
+
+    /**
+     * Lock-free purchase method to check availability and purchase.
+     * Duplicate uuid is resolved before touching the inventory, the inventory is then updated by CAS,
+     * and the timestamp is assigned and committed only after the update succeeded.
+     * The uuid is claimed by a hold first, like the primary does, so a concurrent duplicate waits
+     * for the first one and then returns its result instead of applying it again.
+     *
+     * @param uuid
+     * @param userId
      * @param tickets
+     * @param timestamp
      * @return boolean
      *      - true for success, false for fail
      */
-    public boolean purchase(String uuid, int tickets, List<Integer> timestamp) {
-        boolean result;
+    public boolean purchase(String uuid, int userId, int tickets, List<Integer> timestamp) {
+        boolean result = false;
+        boolean duplicate = false;
+        boolean claimed = false;
 
-        this.lock.writeLock().lock();
-        if (tickets > 0 && EventServiceDriver.eventList.containsLog(uuid)) {
+        if (tickets <= 0) {
+            return false;
+        }
+
+        if (EventServiceDriver.eventList.containsLog(uuid)) {
             checkMatch(uuid, timestamp);
-            result = true;
-        }
-        else if (this.avail - tickets >= 0 && this.purchased + tickets >= 0 &&
-                (this.avail - tickets) + (this.purchased + tickets) == this.numtickets) {
-            this.avail -= tickets;
-            this.purchased += tickets;
-
-            if (tickets < 0) {
-                EventServiceDriver.eventList.rollbackCommit(uuid);
-                EventServiceDriver.lamportTimestamps.decrementAndGetWithOutLock();
-                System.out.println("[Purchase] uuid: " + uuid +
-                        " with timestamp #" + timestamp.get(0) + " has been rolled back");
-            }
-            else {
-                int newTimestamp;
-                if (EventServiceDriver.state == State.PRIMARY) {
-                    newTimestamp = EventServiceDriver.lamportTimestamps.incrementAndGetWithOutLock();
-                }
-                else {
-                    newTimestamp = EventServiceDriver.lamportTimestamps.incrementAndGet();
+            return true;
+        }
+
+        while (!claimed && !duplicate) {
+            // share the write gate with other buyers, only a full backup has to wait for us
+            EventServiceDriver.eventList.lockForPurchase();
+            try {
+                // a restore, a delta from the primary, or a duplicate may have committed the uuid meanwhile
+                if (EventServiceDriver.eventList.containsLog(uuid)) {
+                    duplicate = true;
+                    result = true;
                 }
+                // the hold only claims the uuid, the tickets are moved by the commit itself
+                else if (EventServiceDriver.eventList.hold(uuid, this.eventId, 0)) {
+                    claimed = true;
+                    result = updateInventory(tickets);
+
+                    if (result) {
+                        EventServiceDriver.eventList.inventoryChanged(this);
+
+                        int newTimestamp = Math.toIntExact(EventServiceDriver.lamportTimestamps.next());
+
+                        timestamp.add(newTimestamp);
+                        EventServiceDriver.eventList.commitPurchase(uuid, newTimestamp, this.eventId, userId, tickets);
+                        System.out.println("[Purchase] Event " + this.eventId +
+                                " has been purchased and committed with timestamp #" + newTimestamp +
+                                " and uuid: " + uuid);
+                    }
 
-                timestamp.add(newTimestamp);
-                EventServiceDriver.eventList.commit(uuid, newTimestamp, this.eventId);
-                System.out.println("[Purchase] Event " + this.eventId +
-                        " has been purchased and committed with timestamp #" + newTimestamp +
-                        " and uuid: " + uuid);
+                    // after the commit, so the duplicate waiting for it finds the uuid committed
+                    EventServiceDriver.eventList.removeHold(uuid);
+                }
+            }
+            finally {
+                EventServiceDriver.eventList.unlockFromPurchase();
             }
 
-            result = true;
+            if (!claimed && !duplicate) {
+                // the same uuid is being applied by another request, wait for its result
+                Thread.yield();
+            }
         }
-        else {
-            result = false;
+
+        if (duplicate) {
+            checkMatch(uuid, timestamp);
         }
-        this.lock.writeLock().unlock();
 
         return result;
     }
 
     /**
-     * Synchronized toJsonObject method to get the detail of Event with JSON format.
+     * Reserve the tickets for a purchase on primary, without committing it or taking a timestamp.
+     * The tickets are held until the purchase is confirmed or released, or the hold expires,
+     * so nothing but the confirm has to wait for the Lamport Timestamp.
+     * A uuid committed before is not reserved again, its timestamp is added into the list instead,
+     * and a uuid still held by another request waits for its outcome, like a duplicate purchase on secondaries.
+     *
+     * @param uuid
+     * @param tickets
+     * @param timestamp
+     * @return boolean
+     *      - true for reserved or committed before, false for not enough tickets
+     */
+    public boolean reserve(String uuid, int tickets, List<Integer> timestamp) {
+        while (true) {
+            EventServiceDriver.eventList.lockForPurchase();
+            try {
+                // a retry of a purchase committed meanwhile answers with its timestamp
+                if (EventServiceDriver.eventList.containsLog(uuid)) {
+                    checkMatch(uuid, timestamp);
+                    return true;
+                }
+
+                if (EventServiceDriver.eventList.hold(uuid, this.eventId, tickets)) {
+                    if (!holdTickets(tickets)) {
+                        EventServiceDriver.eventList.removeHold(uuid);
+                        return false;
+                    }
+
+                    EventServiceDriver.eventList.inventoryChanged(this);
+                    return true;
+                }
+            }
+            finally {
+                EventServiceDriver.eventList.unlockFromPurchase();
+            }
+
+            // the same uuid is being purchased by another request, wait until it is confirmed or aborted
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Take over the tickets of a reserved purchase from its hold, so it can be confirmed.
+     * The uuid stays claimed until the confirm or the abort, so a retry waits for the outcome.
+     * If the hold has expired meanwhile, the tickets are held again.
+     * Must hold the purchase lock of EventList until the purchase is confirmed.
+     *
+     * @param uuid
+     * @param tickets
+     * @return boolean
+     *      - true for success, false if the hold expired and the tickets are gone
+     */
+    public boolean secure(String uuid, int tickets) {
+        if (EventServiceDriver.eventList.takeHold(uuid, this.eventId) == null) {
+            if (!holdTickets(tickets)) {
+                EventServiceDriver.eventList.removeHold(uuid);
+                System.out.println("[Purchase] Hold of uuid: " + uuid + " expired and the tickets are gone");
+                return false;
+            }
+
+            EventServiceDriver.eventList.inventoryChanged(this);
+        }
+
+        return true;
+    }
+
+    /**
+     * Confirm a secured purchase with the timestamp allocated for it and commit it,
+     * which also puts its credit into the outbox. Must hold the purchase lock of EventList.
+     * The tickets are settled after the commit, so a commit which fails leaves them held for the abort.
+     *
+     * @param uuid
+     * @param userId
+     * @param tickets
+     * @param timestamp
+     */
+    public void confirm(String uuid, int userId, int tickets, int timestamp) {
+        EventServiceDriver.eventList.commitPurchase(uuid, timestamp, this.eventId, userId, tickets);
+        settleTickets(tickets);
+        // after the commit, so the retry waiting for it finds the uuid committed
+        EventServiceDriver.eventList.removeHold(uuid);
+        System.out.println("[Purchase] Event " + this.eventId +
+                " has been purchased and committed with timestamp #" + timestamp + " and uuid: " + uuid);
+    }
+
+    /**
+     * Abort a secured purchase whose confirm failed, put its tickets back and commit an abort operation
+     * with the timestamp allocated for it. Must hold the purchase lock of EventList.
+     *
+     * @param uuid
+     * @param userId
+     * @param tickets
+     * @param timestamp
+     * @return Operation
+     *      - the abort operation to replicate
+     */
+    public Operation abort(String uuid, int userId, int tickets, int timestamp) {
+        unholdTickets(tickets);
+        EventServiceDriver.eventList.inventoryChanged(this);
+
+        Operation op = Operation.abort(timestamp, uuid, this.eventId, userId, tickets);
+        EventServiceDriver.eventList.commitAbort(op);
+        EventServiceDriver.eventList.removeHold(uuid);
+        System.out.println("[Purchase] Event " + this.eventId +
+                " has aborted the purchase with timestamp #" + timestamp + " and uuid: " + uuid);
+        return op;
+    }
+
+    /**
+     * Release a reserved purchase and put its tickets back, nothing has been committed for it.
+     *
+     * @param uuid
+     * @return boolean
+     *      - false if the hold has been confirmed, released, or expired already
+     */
+    public boolean release(String uuid) {
+        EventServiceDriver.eventList.lockForPurchase();
+        try {
+            PurchaseHolds.Hold hold = EventServiceDriver.eventList.removeHold(uuid);
+            if (hold == null) {
+                return false;
+            }
+
+            unholdTickets(hold.tickets);
+            EventServiceDriver.eventList.inventoryChanged(this);
+        }
+        finally {
+            EventServiceDriver.eventList.unlockFromPurchase();
+        }
+
+        System.out.println("[Purchase] uuid: " + uuid + " has been released");
+        return true;
+    }
+
+    /**
+     * Take the tickets of a hold out of avail.
+     * An event on heap counts them as purchased at once, like a purchase.
+     * A record keeps them out of purchased until the confirm, in the same word,
+     * so the tickets of a hold a crash left unconfirmed are known on recovery.
+     *
+     * @param tickets
+     * @return boolean
+     *      - true for success, false for not enough tickets
+     */
+    private boolean holdTickets(int tickets) {
+        if (this.store == null) {
+            return updateInventory(tickets);
+        }
+
+        while (true) {
+            long current = baseInventory();
+            if (avail(current) < tickets) {
+                return false;
+            }
+
+            if (compareAndSetInventory(current, pack(avail(current) - tickets, purchased(current)))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Count the held tickets of a confirmed purchase as purchased, only a record keeps them apart.
+     *
+     * @param tickets
+     */
+    private void settleTickets(int tickets) {
+        if (this.store == null) {
+            return;
+        }
+
+        long current;
+        do {
+            current = baseInventory();
+        } while (!compareAndSetInventory(current, pack(avail(current), purchased(current) + tickets)));
+    }
+
+    /**
+     * Put the tickets of a released hold back into avail.
+     *
+     * @param tickets
+     */
+    private void unholdTickets(int tickets) {
+        if (this.store == null) {
+            updateInventory(-tickets);
+            return;
+        }
+
+        long current;
+        do {
+            current = baseInventory();
+        } while (!compareAndSetInventory(current, pack(avail(current) + tickets, purchased(current))));
+    }
+
+    /**
+     * Give back the tickets which the record still holds for purchases never confirmed, left by a crash.
+     * Must be called before the event is shared.
+     *
+     * @return int
+     *      - tickets given back
+     */
+    int releaseHeld() {
+        long current = baseInventory();
+        int held = this.numtickets - avail(current) - purchased(current);
+
+        if (this.store == null || held <= 0) {
+            return 0;
+        }
+
+        compareAndSetInventory(current, pack(avail(current) + held, purchased(current)));
+        return held;
+    }
+
+    /**
+     * Move tickets without committing, used by replaying the write-ahead log.
+     *
+     * @param tickets
+     * @return boolean
+     */
+    boolean moveTickets(int tickets) {
+        return updateInventory(tickets);
+    }
+
+    /**
+     * Check the availability and move tickets between avail and purchased with compare-and-set.
+     * Negative number of tickets puts them back.
+     * A hot event claims from its stripes instead, the single counter then holds what the stripes don't.
+     *
+     * @param tickets
+     * @return boolean
+     *      - true for success, false for not enough tickets
+     */
+    private boolean updateInventory(int tickets) {
+        while (true) {
+            InventoryStripes stripes = this.stripes;
+            if (stripes != null) {
+                int outcome = updateStripes(stripes, tickets);
+                if (outcome != InventoryStripes.FOLDED) {
+                    return outcome == InventoryStripes.DONE;
+                }
+
+                continue; // folded back meanwhile
+            }
+
+            long current = baseInventory();
+            int avail = avail(current);
+            int purchased = purchased(current);
+            int total = (avail - tickets) + (purchased + tickets);
+
+            // a record keeps the tickets of its holds out of both counters
+            if (avail - tickets < 0 || purchased + tickets < 0 ||
+                    total > this.numtickets || (this.store == null && total != this.numtickets)) {
+                if (this.stripes != null) {
+                    continue; // the tickets have just moved into the stripes
+                }
+                return false;
+            }
+
+            if (compareAndSetInventory(current, pack(avail - tickets, purchased + tickets))) {
+                return true;
+            }
+
+            contended();
+        }
+    }
+
+    /**
+     * Claim or put back tickets in the stripes, rebalance them if no single stripe has enough,
+     * and fold them back if the event cooled down.
+     *
+     * @param stripes
+     * @param tickets
+     * @return int
+     *      - outcome of InventoryStripes
+     */
+    private int updateStripes(InventoryStripes stripes, int tickets) {
+        int outcome = stripes.update(tickets);
+
+        if (outcome == InventoryStripes.SHORT) {
+            outcome = rebalance(stripes, tickets);
+        }
+        if (outcome != InventoryStripes.FOLDED && stripes.cooled()) {
+            fold(stripes);
+        }
+
+        return outcome;
+    }
+
+    /**
+     * Gather the leftover tickets of every stripe and the single counter, claim from the total,
+     * and spread the rest evenly. The total is exact here, so SHORT means sold out.
+     *
+     * @param stripes
+     * @param tickets
+     * @return int
+     *      - outcome of InventoryStripes
+     */
+    private int rebalance(InventoryStripes stripes, int tickets) {
+        StampedLock lock = stripes.getLock();
+        long stamp = lock.writeLock();
+        try {
+            int avail = stripes.drain();
+            if (avail < 0) {
+                return InventoryStripes.FOLDED;
+            }
+
+            avail += moveBase(Integer.MIN_VALUE);
+            if (avail < tickets) {
+                stripes.fill(avail);
+                return InventoryStripes.SHORT;
+            }
+
+            stripes.fill(avail - tickets);
+            return InventoryStripes.DONE;
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Count a failed compare-and-set, split the inventory if there are too many within the window.
+     */
+    private void contended() {
+        if (this.store != null || InventoryStripes.COUNT < 2) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (now - this.contentionWindow > HOT_WINDOW) {
+            this.contentionWindow = now;
+            this.contention = 0;
+        }
+
+        if (CONTENTION.incrementAndGet(this) == HOT_CONTENTION) {
+            split();
+        }
+    }
+
+    /**
+     * Move the available tickets into new stripes. The stripes are published locked,
+     * so readers summing them wait until the tickets are in them.
+     * Buyers don't take the lock, a ticket they put back meanwhile is kept by the fill.
+     */
+    private void split() {
+        InventoryStripes stripes = new InventoryStripes();
+        StampedLock lock = stripes.getLock();
+        long stamp = lock.writeLock();
+
+        try {
+            if (!STRIPES.compareAndSet(this, null, stripes)) {
+                return;
+            }
+
+            stripes.fill(moveBase(Integer.MIN_VALUE));
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+
+        System.out.println("[Purchase] Event " + this.eventId + " is hot, inventory split into " +
+                InventoryStripes.COUNT + " stripes");
+    }
+
+    /**
+     * Move the leftover tickets of the stripes back into the single counter.
+     *
+     * @param stripes
+     */
+    private void fold(InventoryStripes stripes) {
+        StampedLock lock = stripes.getLock();
+        long stamp = lock.writeLock();
+
+        try {
+            int avail = stripes.retire();
+            if (avail < 0) {
+                return;
+            }
+
+            moveBase(avail);
+            this.stripes = null;
+            this.contention = 0;
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+
+        System.out.println("[Purchase] Event " + this.eventId + " cooled down, inventory folded back");
+    }
+
+    /**
+     * Move tickets between the single counter and the stripes, keeping avail + purchased of the counter.
+     * The tickets in the stripes count as purchased in the counter.
+     *
+     * @param avail
+     *      - tickets to put back, Integer.MIN_VALUE to take every available ticket
+     * @return int
+     *      - tickets taken
+     */
+    private int moveBase(int avail) {
+        while (true) {
+            long current = baseInventory();
+            int delta = (avail == Integer.MIN_VALUE) ? -avail(current) : avail;
+
+            if (compareAndSetInventory(current, pack(avail(current) + delta, purchased(current) - delta))) {
+                return -delta;
+            }
+        }
+    }
+
+    /**
+     * Lock-free toJsonObject method to get the detail of Event with JSON format.
+     * Both counters come from one read of the packed word, so the snapshot is always consistent.
      *
      * @return JsonObject
      *      - event detail
      */
     public JsonObject toJsonObject() {
+        return toJsonObject(getInventory());
+    }
+
+    /**
+     * Return the JSON format of Event with only the fields, used by the projection of list.
+     *
+     * @param fields
+     * @return JsonObject
+     */
+    public JsonObject toJsonObject(Collection<String> fields) {
+        JsonObject full = toJsonObject(getInventory());
+        JsonObject obj = new JsonObject();
+
+        for (String field : fields) {
+            if (full.has(field)) {
+                obj.add(field, full.get(field));
+            }
+        }
+
+        return obj;
+    }
+
+    /**
+     * Return the JSON format of Event with the counters from a snapshot of the inventory.
+     *
+     * @param snapshot
+     * @return JsonObject
+     */
+    JsonObject toJsonObject(long snapshot) {
         JsonObject obj = new JsonObject();
 
-        this.lock.readLock().lock();
         obj.addProperty("eventid", this.eventId);
-        obj.addProperty("eventname", this.eventName);
+        obj.addProperty("eventname", getEventName());
         obj.addProperty("userid", this.createUserId);
-        obj.addProperty("avail", this.avail);
-        obj.addProperty("purchased", this.purchased);
-        this.lock.readLock().unlock();
+        obj.addProperty("avail", avail(snapshot));
+        obj.addProperty("purchased", purchased(snapshot));
 
         return obj;
     }
 
+    /**
+     * EventId getter.
+     *
+     * @return int
+     */
+    int getEventId() {
+        return this.eventId;
+    }
+
+    /**
+     * EventName getter.
+     *
+     * @return String
+     */
+    String getEventName() {
+        String eventName = this.eventName;
+
+        if (eventName == null) {
+            eventName = this.store.getEventName(this.eventId);
+            this.eventName = eventName;
+        }
+
+        return eventName;
+    }
+
+    /**
+     * CreateUserId getter.
+     *
+     * @return int
+     */
+    int getCreateUserId() {
+        return this.createUserId;
+    }
+
+    /**
+     * Numtickets getter.
+     *
+     * @return int
+     */
+    int getNumtickets() {
+        return this.numtickets;
+    }
+
+    /**
+     * Return the current number of available tickets.
+     *
+     * @return int
+     */
+    int getAvail() {
+        return avail(getInventory());
+    }
+
+    /**
+     * Return the current packed inventory, used as the version of the event by the list cache.
+     * The held tickets count as purchased.
+     * For a hot event, the stripes are added to the single counter under an optimistic read,
+     * retried with the read lock if tickets moved between them meanwhile.
+     *
+     * @return long
+     */
+    long getInventory() {
+        InventoryStripes stripes = this.stripes;
+        if (stripes == null && this.store == null) {
+            return baseInventory();
+        }
+        if (stripes == null) {
+            // the held tickets of a record count as purchased, like on heap
+            int avail = avail(baseInventory());
+            return pack(avail, this.numtickets - avail);
+        }
+
+        StampedLock lock = stripes.getLock();
+        long stamp = lock.tryOptimisticRead();
+        int avail = avail(baseInventory()) + stripes.sum();
+
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                avail = avail(baseInventory()) + stripes.sum();
+            }
+            finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        return pack(avail, this.numtickets - avail);
+    }
+
+    /**
+     * Return the packed inventory of the single counter.
+     *
+     * @return long
+     */
+    private long baseInventory() {
+        return (this.store == null) ? this.inventory : this.store.getInventory(this.eventId);
+    }
+
+    /**
+     * Set the packed inventory if it still equals the expected one.
+     *
+     * @param expect
+     * @param update
+     * @return boolean
+     */
+    private boolean compareAndSetInventory(long expect, long update) {
+        if (this.store == null) {
+            return INVENTORY.compareAndSet(this, expect, update);
+        }
+
+        return this.store.compareAndSetInventory(this.eventId, expect, update);
+    }
+
+    /**
+     * Return the event detail as UTF-8 JSON bytes, served from the cache if the inventory hasn't moved.
+     *
+     * @return byte[]
+     */
+    public byte[] toJsonBytes() {
+        return toJsonBytes(getInventory());
+    }
+
+    /**
+     * Encode the event detail of a snapshot of the inventory into UTF-8 JSON bytes.
+     * The cached bytes are tagged with their inventory, so a purchase or release invalidates them.
+     * Otherwise only the counters are spliced after the pre-encoded immutable prefix.
+     *
+     * @param snapshot
+     * @return byte[]
+     */
+    byte[] toJsonBytes(long snapshot) {
+        Encoded encoded = this.encoded;
+        if (encoded != null && encoded.inventory == snapshot) {
+            return encoded.bytes;
+        }
+
+        byte[] prefix = getPrefix();
+        byte[] avail = Integer.toString(avail(snapshot)).getBytes(StandardCharsets.US_ASCII);
+        byte[] purchased = Integer.toString(purchased(snapshot)).getBytes(StandardCharsets.US_ASCII);
+        byte[] bytes = new byte[prefix.length + avail.length + PURCHASED_KEY.length + purchased.length + 1];
+
+        int offset = 0;
+        System.arraycopy(prefix, 0, bytes, offset, prefix.length);
+        offset += prefix.length;
+        System.arraycopy(avail, 0, bytes, offset, avail.length);
+        offset += avail.length;
+        System.arraycopy(PURCHASED_KEY, 0, bytes, offset, PURCHASED_KEY.length);
+        offset += PURCHASED_KEY.length;
+        System.arraycopy(purchased, 0, bytes, offset, purchased.length);
+        bytes[bytes.length - 1] = '}';
+
+        this.encoded = new Encoded(snapshot, bytes);
+        return bytes;
+    }
+
+    /**
+     * Return the encoded immutable part of the event detail, build it on first use.
+     * Gson encodes it, so the escaping is the same as toJsonObject.
+     *
+     * @return byte[]
+     */
+    private byte[] getPrefix() {
+        byte[] prefix = this.prefix;
+
+        if (prefix == null) {
+            String json = toJsonObject(0L).toString();
+            prefix = json.substring(0, json.indexOf(AVAIL_KEY) + AVAIL_KEY.length())
+                    .getBytes(StandardCharsets.UTF_8);
+            this.prefix = prefix;
+        }
+
+        return prefix;
+    }
+
     /**
      * For secondaries to check the correctness of existing uuid and timestamp.
      * If doesn't match, send a full backup request to the primary.
@@ -190,37 +882,65 @@ public class Event {
      * @param timestamp
      */
     private void checkMatch(String uuid, List<Integer> timestamp) {
-        int[] logDetail = EventServiceDriver.eventList.getLogDetails(uuid);
+        int logTimestamp = EventServiceDriver.eventList.getLogTimestamp(uuid);
 
         /*
         If the request has already been committed, check if the timestamp matches.
         If not request to primary for full backup. Finally, get the timestamp and eventId by uuid.
          */
         if (EventServiceDriver.state != State.PRIMARY &&
-                timestamp.get(0) != null && timestamp.get(0) != logDetail[0]) {
+                timestamp.get(0) != null && timestamp.get(0) != logTimestamp) {
             System.out.println("[EventList] uuid doesn't match with timestamp, requesting for full backup...");
             FullBackup fb = new FullBackup();
             fb.requestForBackup(true);
-            timestamp.add(0, EventServiceDriver.eventList.getLogDetails(uuid)[0]);
+            timestamp.add(0, EventServiceDriver.eventList.getLogTimestamp(uuid));
         }
         else {
             System.out.println("[EventList] uuid: " + uuid +
-                    " has already been committed with timestamp #" + logDetail[0]);
-            timestamp.add(logDetail[0]);
+                    " has already been committed with timestamp #" + logTimestamp);
+            timestamp.add(logTimestamp);
         }
     }
 
     /**
-     * Lock read from outside.
+     * Return the packed inventory with the held tickets counted as available again.
+     *
+     * @param inventory
+     * @param held
+     * @return long
      */
-    void lockForBackup() {
-        this.lock.readLock().lock();
+    static long unhold(long inventory, int held) {
+        return pack(avail(inventory) + held, purchased(inventory) - held);
     }
 
     /**
-     * Unlock read from outside.
+     * Pack avail and purchased into one word.
+     *
+     * @param avail
+     * @param purchased
+     * @return long
+     */
+    private static long pack(int avail, int purchased) {
+        return ((long) avail << 32) | (purchased & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Unpack avail from the word.
+     *
+     * @param inventory
+     * @return int
+     */
+    private static int avail(long inventory) {
+        return (int) (inventory >>> 32);
+    }
+
+    /**
+     * Unpack purchased from the word.
+     *
+     * @param inventory
+     * @return int
      */
-    void unlockFromBackup() {
-        this.lock.readLock().unlock();
+    private static int purchased(long inventory) {
+        return (int) inventory;
     }
 }
@@ -0,0 +1,210 @@
+package EventService.EventConcurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe secondary indexes of EventList: by creator, by availability, and by name.
+ * Events are only added by the writer of EventList, one at a time,
+ * while the availability is flipped concurrently by purchases.
+ * Queries never lock.
+ */
+class EventIndex {
+    private static final int WORDS_PER_SEGMENT = 1024; // 65536 events per segment
+
+    private final Map<Integer, IdList> byCreator;
+    private final ConcurrentSkipListMap<String, IdList> byName;
+    private volatile AtomicLongArray[] available; // bit set of eventId with avail > 0
+
+    /**
+     * Growable list of eventId with one writer and lock-free readers.
+     */
+    private static class IdList {
+        private volatile int[] ids;
+        private volatile int size;
+
+        /**
+         * Constructor of IdList.
+         */
+        private IdList() {
+            this.ids = new int[4];
+            this.size = 0;
+        }
+
+        /**
+         * Append an eventId, must be called by one writer at a time.
+         *
+         * @param eventId
+         */
+        private void add(int eventId) {
+            int[] ids = this.ids;
+            if (this.size == ids.length) {
+                int[] newIds = new int[ids.length * 2];
+                System.arraycopy(ids, 0, newIds, 0, ids.length);
+                ids = newIds;
+            }
+
+            ids[this.size] = eventId;
+            this.ids = ids;
+            this.size++;
+        }
+
+        /**
+         * Add the eventIds after the cursor into the result, eventIds are ascending.
+         *
+         * @param after
+         * @param limit
+         * @param result
+         */
+        private void collect(int after, int limit, List<Integer> result) {
+            int size = this.size;
+            int[] ids = this.ids;
+
+            for (int i = 0; i < size && result.size() < limit; i++) {
+                if (ids[i] > after) {
+                    result.add(ids[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructor of EventIndex.
+     */
+    EventIndex() {
+        this.byCreator = new ConcurrentHashMap<>();
+        this.byName = new ConcurrentSkipListMap<>();
+        this.available = new AtomicLongArray[0];
+    }
+
+    /**
+     * Index a new event, must be called by one writer at a time.
+     *
+     * @param event
+     */
+    void add(Event event) {
+        int eventId = event.getEventId();
+
+        this.byCreator.computeIfAbsent(event.getCreateUserId(), k -> new IdList()).add(eventId);
+        this.byName.computeIfAbsent(event.getEventName(), k -> new IdList()).add(eventId);
+
+        int segment = eventId / (WORDS_PER_SEGMENT * 64);
+        AtomicLongArray[] available = this.available;
+        if (segment >= available.length) {
+            AtomicLongArray[] newAvailable = new AtomicLongArray[segment + 1];
+            System.arraycopy(available, 0, newAvailable, 0, available.length);
+            for (int i = available.length; i <= segment; i++) {
+                newAvailable[i] = new AtomicLongArray(WORDS_PER_SEGMENT);
+            }
+            this.available = newAvailable;
+        }
+
+        updateAvailability(event);
+    }
+
+    /**
+     * Sync the availability bit with the current inventory of the event.
+     * Re-check after flipping, so concurrent purchases and releases always leave the latest state.
+     *
+     * @param event
+     */
+    void updateAvailability(Event event) {
+        int eventId = event.getEventId();
+        AtomicLongArray[] available = this.available;
+        int segment = eventId / (WORDS_PER_SEGMENT * 64);
+        if (segment >= available.length) {
+            return; // not indexed yet, add will sync it
+        }
+
+        AtomicLongArray words = available[segment];
+        int word = (eventId / 64) % WORDS_PER_SEGMENT;
+        long bit = 1L << (eventId % 64);
+        boolean isAvailable;
+
+        do {
+            isAvailable = event.getAvail() > 0;
+
+            while (true) {
+                long current = words.get(word);
+                long next = isAvailable ? (current | bit) : (current & ~bit);
+                if (current == next || words.compareAndSet(word, current, next)) {
+                    break;
+                }
+            }
+        } while (isAvailable != (event.getAvail() > 0));
+    }
+
+    /**
+     * Return the eventIds created by the user after the cursor.
+     *
+     * @param userId
+     * @param after
+     * @param limit
+     * @return List
+     */
+    List<Integer> byCreator(int userId, int after, int limit) {
+        List<Integer> result = new ArrayList<>();
+        IdList ids = this.byCreator.get(userId);
+
+        if (ids != null) {
+            ids.collect(after, limit, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Return the eventIds with available tickets after the cursor.
+     *
+     * @param after
+     * @param limit
+     * @return List
+     */
+    List<Integer> available(int after, int limit) {
+        List<Integer> result = new ArrayList<>();
+        AtomicLongArray[] available = this.available;
+        int eventId = Math.max(after + 1, 0);
+
+        while (result.size() < limit && eventId / (WORDS_PER_SEGMENT * 64) < available.length) {
+            AtomicLongArray words = available[eventId / (WORDS_PER_SEGMENT * 64)];
+            int word = (eventId / 64) % WORDS_PER_SEGMENT;
+            long bits = words.get(word) & (-1L << (eventId % 64));
+
+            if (bits == 0) {
+                eventId = (eventId / 64 + 1) * 64; // skip to the next word
+            }
+            else {
+                eventId = (eventId / 64) * 64 + Long.numberOfTrailingZeros(bits);
+                result.add(eventId);
+                eventId++;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Return the eventIds whose name starts with the prefix, in the order of name and eventId.
+     *
+     * @param prefix
+     * @param limit
+     * @return List
+     */
+    List<Integer> byNamePrefix(String prefix, int limit) {
+        List<Integer> result = new ArrayList<>();
+
+        for (Map.Entry<String, IdList> entry : this.byName.tailMap(prefix).entrySet()) {
+            if (!entry.getKey().startsWith(prefix) || result.size() >= limit) {
+                break;
+            }
+
+            entry.getValue().collect(-1, limit, result);
+        }
+
+        return result;
+    }
+}
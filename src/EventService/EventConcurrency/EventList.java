@@ -6,30 +6,174 @@ import Usage.State;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Thread-safe EventList data structure.
  */
 public class EventList {
-    private final ReentrantReadWriteLock lock;
-    private final Map<Integer, Event> events;
-    private final Map<String, int[]> committed; // Map<uuid, int[2] {timestamp, eventId}>
+    private static final int JOURNAL_SLACK = 65536; // entries the journal may grow over the live log before a rewrite
+
+    private final ReentrantReadWriteLock lock; // write for add, backup and restore, read for purchases
+    private final boolean offHeap; // keep the events in OffHeapEventTable instead of EventTable
+    private volatile EventStore events;
+    private volatile EventIndex index;
+    private volatile CommittedLog committed; // uuid -> {timestamp, eventId}
+    private final AtomicInteger watermark; // timestamps at or below it have been applied on all replicas
+    private final OperationLog operations;
+    private final AtomicLong version; // moves forward on every change of the events
+    private final ListCache listCache;
+    private final DataDirectory storage; // null if nothing is persisted
+    private volatile CommittedLogJournal journal; // null if nothing is persisted
+    private volatile WriteAheadLog wal; // null if there is no write-ahead log
+    private volatile SnapshotFile snapshotFile; // null if there is no local snapshot
+    private final AtomicLong cuts; // number of snapshot cuts taken
+    private final PurchaseHolds holds; // tickets reserved by purchases waiting for their confirm
+    private final CreditOutbox credits; // committed purchases not credited to the User Service yet
 
     /**
-     * Constructor of EventList.
+     * Constructor of EventList with the events on heap.
      */
     public EventList() {
+        this(false);
+    }
+
+    /**
+     * Constructor of EventList.
+     *
+     * @param offHeap
+     *      - true to keep the events outside of the heap
+     */
+    public EventList(boolean offHeap) {
+        this(offHeap, null);
+    }
+
+    /**
+     * Constructor of EventList persisted in memory-mapped files,
+     * recover the events, committed log, and Lamport Timestamp left in the data directory.
+     *
+     * @param dataDir
+     * @throws IOException
+     */
+    public EventList(String dataDir) throws IOException {
+        this(true, new DataDirectory(dataDir));
+        recover();
+    }
+
+    /**
+     * Constructor of EventList.
+     *
+     * @param offHeap
+     * @param storage
+     */
+    private EventList(boolean offHeap, DataDirectory storage) {
         this.lock = new ReentrantReadWriteLock();
-        this.events = new HashMap<>();
-        this.committed = new HashMap<>();
+        this.offHeap = offHeap;
+        this.events = newStore();
+        this.index = new EventIndex();
+        this.committed = new CommittedLog();
+        this.watermark = new AtomicInteger(0);
+        this.operations = new OperationLog();
+        this.version = new AtomicLong(0);
+        this.listCache = new ListCache();
+        this.storage = storage;
+        this.journal = null;
+        this.wal = null;
+        this.snapshotFile = null;
+        this.cuts = new AtomicLong(0);
+        this.holds = new PurchaseHolds();
+        this.credits = new CreditOutbox();
+    }
+
+    /**
+     * Open the current generation of the data directory and rebuild the in-memory structures from it.
+     * The tickets held by purchases which were never confirmed are given back.
+     * The Lamport Timestamp is the highest one still in the committed log,
+     * or the one of the last checkpoint if the log has been compacted below it.
+     *
+     * @throws IOException
+     */
+    private void recover() throws IOException {
+        File dir = this.storage.generationDir(this.storage.getGeneration(), false);
+        MappedEventTable events = new MappedEventTable(dir);
+        EventIndex index = new EventIndex();
+        int released = 0;
+
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            if (event != null) {
+                // no hold survives a restart, its purchase is retried by the frontend
+                released += event.releaseHeld();
+                index.add(event);
+            }
+        }
+
+        if (released > 0) {
+            System.out.println("[Recovery] Released " + released + " tickets held by unconfirmed purchases");
+        }
+
+        CommittedLog committed = new CommittedLog();
+        CommittedLogJournal journal = new CommittedLogJournal(this.storage.journalFile(dir));
+        int timestamp = Math.max(journal.replay(committed), this.storage.getTimestamp());
+
+        this.events = events;
+        this.index = index;
+        this.committed = committed;
+        this.journal = journal;
+        this.watermark.set(this.storage.getWatermark());
+        this.operations.reset(timestamp);
+        EventServiceDriver.lamportTimestamps.set(timestamp);
+        touch();
+
+        System.out.println("[Recovery] " + events.size() + " events and " + committed.size() +
+                " committed logs recovered with timestamp #" + timestamp);
     }
 
     /**
-     * Synchronized add method to create an Event and put it into HashMap.
+     * Flush the persistent files and record the Lamport Timestamp and watermark in the data directory.
+     * The journal is rewritten from the live log once removed and compacted entries dominate it.
+     */
+    public void checkpoint() {
+        if (this.storage == null) {
+            return;
+        }
+
+        try {
+            ((MappedEventTable) this.events).force();
+
+            if (this.journal.size() > 2 * this.committed.size() + JOURNAL_SLACK) {
+                // no commit may go into the old journal while it is rewritten
+                this.lock.writeLock().lock();
+                try {
+                    this.journal = this.journal.rewrite(this.committed);
+                }
+                finally {
+                    this.lock.writeLock().unlock();
+                }
+            }
+            else {
+                this.journal.force();
+            }
+
+            this.storage.checkpoint(
+                    Math.toIntExact(EventServiceDriver.lamportTimestamps.get()), this.watermark.get());
+        }
+        catch (IOException ioe) {
+            System.out.println("[Checkpoint] Failed to checkpoint the data directory: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Synchronized add method to create an Event and append it into the EventStore.
      *
      * @param uuid
      * @param eventName
@@ -45,23 +189,28 @@ public class EventList {
         try {
             this.lock.writeLock().lock();
 
-            if (this.committed.containsKey(uuid)) {
+            if (containsLog(uuid)) {
                 checkMatch(uuid, timestamp);
-                timestamp.add(0, this.committed.get(uuid)[0]);
-                eventId = this.committed.get(uuid)[1];
+                timestamp.add(0, getLogTimestamp(uuid));
+                eventId = this.committed.getEventId(uuid);
             }
             else {
                 eventId = this.events.size();
                 Event newEvent = new Event.EventBuilder().setEventId(eventId).setEventName(eventName)
                         .setCreateUserId(createUserId).setNumtickets(numtickets).build();
-                this.events.put(eventId, newEvent);
+                this.events.append(newEvent);
+                this.index.add(newEvent);
+                touch();
 
                 /*
                 Add the success timestamp into the list for the usage of the caller method.
                 Log the uuid, timestamp, and eventId for later usage like checking duplicate.
                  */
-                timestamp.add(EventServiceDriver.lamportTimestamps.incrementAndGet());
-                this.committed.put(uuid, new int[] {timestamp.get(0), eventId});
+                timestamp.add(Math.toIntExact(EventServiceDriver.lamportTimestamps.next()));
+                commit(uuid, timestamp.get(0), eventId);
+                Operation op = Operation.create(timestamp.get(0), uuid, eventId, eventName, createUserId, numtickets);
+                this.operations.append(op);
+                log(op);
 
                 System.out.println("[EventList] Event " + eventId +
                         " has been created and committed with timestamp #" +timestamp.get(0) +
@@ -80,37 +229,187 @@ public class EventList {
     }
 
     /**
-     * Synchronized get method to get Event from HashMap.
+     * Lock-free get method to get Event from the EventStore.
      *
      * @param eventId
      * @return Event
      */
     public Event get(int eventId) {
-        this.lock.readLock().lock();
-        Event event = this.events.get(eventId);
-        this.lock.readLock().unlock();
-
-        return event;
+        return this.events.get(eventId);
     }
 
     /**
-     * Synchronized toJsonArray method to get the list of Events from HashMap with JSON format.
+     * Lock-free toJsonArray method to get the list of Events from the EventStore with JSON format.
+     * The held tickets are counted as available, so the list is exact for a backup under the backup lock.
      *
      * @return JsonArray
      *      - a list of Events
      */
     public JsonArray toJsonArray() {
         JsonArray array = new JsonArray();
+        EventStore events = this.events;
+        Map<Integer, Integer> held = this.holds.heldByEvent();
+        int size = events.size();
 
-        this.lock.readLock().lock();
-        for (Event event : this.events.values()) {
-            array.add(event.toJsonObject());
+        for (int i = 0; i < size; i++) {
+            Event event = events.get(i);
+            if (event != null) {
+                array.add(event.toJsonObject(
+                        Event.unhold(event.getInventory(), held.getOrDefault(event.getEventId(), 0))));
+            }
         }
-        this.lock.readLock().unlock();
 
         return array;
     }
 
+    /**
+     * Return the list of Events as pre-encoded JSON bytes, served from the cache if nothing changed.
+     *
+     * @return byte[]
+     */
+    public byte[] toJsonBytes() {
+        long version = this.version.get();
+        return this.listCache.get(version, this.events);
+    }
+
+    /**
+     * Return the number of event slots, which is also the next eventId.
+     *
+     * @return int
+     */
+    public int size() {
+        return this.events.size();
+    }
+
+    /**
+     * Stream the events with eventId in [from, to) as a JSON array, without building it in memory.
+     * Events are written with their cached bytes, or only with the fields if it is not null.
+     *
+     * @param os
+     * @param from
+     * @param to
+     * @param fields
+     * @throws IOException
+     */
+    public void writeJsonArray(OutputStream os, int from, int to, Collection<String> fields) throws IOException {
+        EventStore events = this.events;
+        boolean firstEvent = true;
+        os.write('[');
+
+        for (int i = Math.max(from, 0); i < to; i++) {
+            firstEvent = writeEvent(os, events.get(i), fields, firstEvent);
+        }
+
+        os.write(']');
+    }
+
+    /**
+     * Stream the events of the eventIds as a JSON array.
+     *
+     * @param os
+     * @param eventIds
+     * @param fields
+     * @throws IOException
+     */
+    public void writeJsonArray(OutputStream os, List<Integer> eventIds, Collection<String> fields)
+            throws IOException {
+        EventStore events = this.events;
+        boolean firstEvent = true;
+        os.write('[');
+
+        for (int eventId : eventIds) {
+            firstEvent = writeEvent(os, events.get(eventId), fields, firstEvent);
+        }
+
+        os.write(']');
+    }
+
+    /**
+     * Write one event of the JSON array, skip it if it doesn't exist.
+     *
+     * @param os
+     * @param event
+     * @param fields
+     * @param firstEvent
+     * @return boolean
+     *      - if the next event is still the first one
+     * @throws IOException
+     */
+    private boolean writeEvent(OutputStream os, Event event, Collection<String> fields, boolean firstEvent)
+            throws IOException {
+        if (event == null) {
+            return firstEvent;
+        }
+
+        if (!firstEvent) {
+            os.write(',');
+        }
+        os.write((fields == null) ? event.toJsonBytes() :
+                event.toJsonObject(fields).toString().getBytes(StandardCharsets.UTF_8));
+
+        return false;
+    }
+
+    /**
+     * Return the eventIds created by the user, after the cursor.
+     *
+     * @param userId
+     * @param after
+     * @param limit
+     * @return List
+     */
+    public List<Integer> findByCreator(int userId, int after, int limit) {
+        return this.index.byCreator(userId, after, limit);
+    }
+
+    /**
+     * Return the eventIds with available tickets, after the cursor.
+     *
+     * @param after
+     * @param limit
+     * @return List
+     */
+    public List<Integer> findAvailable(int after, int limit) {
+        return this.index.available(after, limit);
+    }
+
+    /**
+     * Return the eventIds whose name starts with the prefix.
+     *
+     * @param prefix
+     * @param limit
+     * @return List
+     */
+    public List<Integer> findByNamePrefix(String prefix, int limit) {
+        return this.index.byNamePrefix(prefix, limit);
+    }
+
+    /**
+     * Return the current version of the events.
+     *
+     * @return long
+     */
+    public long getVersion() {
+        return this.version.get();
+    }
+
+    /**
+     * Move the version forward after the events have been changed.
+     */
+    void touch() {
+        this.version.incrementAndGet();
+    }
+
+    /**
+     * Update the availability index and the version after a purchase or release of the event.
+     *
+     * @param event
+     */
+    void inventoryChanged(Event event) {
+        this.index.updateAvailability(event);
+        touch();
+    }
+
     /**
      * Return the snapshot of current committed log.
      *
@@ -119,17 +418,200 @@ public class EventList {
     public JsonArray getCommittedLog() {
         JsonArray array = new JsonArray();
 
-        for (String key : this.committed.keySet()) {
+        this.committed.forEach((msb, lsb, timestamp, eventId) -> {
             JsonObject obj = new JsonObject();
-            obj.addProperty("uuid", key);
-            obj.addProperty("timestamp", this.committed.get(key)[0]);
-            obj.addProperty("eventId", this.committed.get(key)[1]);
+            obj.addProperty("uuid", CommittedLog.toUuid(msb, lsb));
+            obj.addProperty("timestamp", timestamp);
+            obj.addProperty("eventId", eventId);
             array.add(obj);
-        }
+        });
 
         return array;
     }
 
+    /**
+     * Return the credits not delivered to the User Service yet.
+     *
+     * @return JsonArray
+     */
+    public JsonArray getCreditOutbox() {
+        return this.credits.toJsonArray();
+    }
+
+    /**
+     * Return the oldest credits not delivered to the User Service yet, wait for one if there is none.
+     *
+     * @param max
+     * @param timeout
+     *      - in milliseconds
+     * @return List
+     * @throws InterruptedException
+     */
+    public List<Operation> pollCredits(int max, long timeout) throws InterruptedException {
+        return this.credits.poll(max, timeout);
+    }
+
+    /**
+     * Remove the credits delivered to the User Service, and record them in the write-ahead log
+     * so they are not sent again after a restart.
+     *
+     * @param delivered
+     */
+    public void credited(List<Operation> delivered) {
+        for (Operation purchase : delivered) {
+            if (this.credits.remove(purchase.getTimestamp(), purchase.getUuid())) {
+                log(Operation.credit(purchase.getTimestamp(), purchase.getUuid(),
+                        purchase.getEventId(), purchase.getUserId(), purchase.getTickets()));
+            }
+        }
+    }
+
+    /**
+     * Refund a purchase whose credit the User Service refused, and put its tickets back
+     * with a refund operation at a new timestamp. The credit is removed from the outbox,
+     * so the purchase is refunded only once. Must hold the purchase lock.
+     *
+     * @param purchase
+     * @return Operation
+     *      - the refund operation to replicate, null if the purchase has been refunded or credited already
+     */
+    public Operation refund(Operation purchase) {
+        if (!this.credits.remove(purchase.getTimestamp(), purchase.getUuid())) {
+            return null;
+        }
+
+        Event event = get(purchase.getEventId());
+        if (event == null || !event.moveTickets(-purchase.getTickets())) {
+            this.credits.add(purchase);
+            return null;
+        }
+        inventoryChanged(event);
+
+        Operation op = Operation.refund(Math.toIntExact(EventServiceDriver.lamportTimestamps.next()),
+                purchase.getUuid(), purchase.getEventId(), purchase.getUserId(), purchase.getTickets());
+        this.operations.append(op);
+        log(op);
+
+        System.out.println("[Outbox] Purchase of uuid: " + purchase.getUuid() +
+                " has been refunded with timestamp #" + op.getTimestamp());
+        return op;
+    }
+
+    /**
+     * For secondaries to apply a refund operation of the primary, and drop the credit of the refunded purchase.
+     * A refund applied before is ignored.
+     *
+     * @param op
+     * @return boolean
+     *      - true for success, false if the tickets can't be put back
+     */
+    public boolean applyRefund(Operation op) {
+        lockForPurchase();
+        try {
+            if (op.getTimestamp() <= EventServiceDriver.lamportTimestamps.get()) {
+                return true;
+            }
+
+            Event event = get(op.getEventId());
+            if (event == null || !event.moveTickets(-op.getTickets())) {
+                return false;
+            }
+            inventoryChanged(event);
+
+            this.credits.remove(getLogTimestamp(op.getUuid()), op.getUuid());
+            this.operations.append(op);
+            log(op);
+            EventServiceDriver.lamportTimestamps.advanceTo(op.getTimestamp());
+        }
+        finally {
+            unlockFromPurchase();
+        }
+
+        System.out.println("[EventList] Purchase of uuid: " + op.getUuid() +
+                " has been refunded with timestamp #" + op.getTimestamp());
+        return true;
+    }
+
+    /**
+     * Return the highest timestamp at or below which every credit has been delivered to the User Service.
+     *
+     * @return int
+     */
+    public int getCredited() {
+        return this.credits.getCredited(Math.toIntExact(EventServiceDriver.lamportTimestamps.get()));
+    }
+
+    /**
+     * For secondaries to drop the credits the primary has delivered.
+     *
+     * @param timestamp
+     */
+    public void dropCredits(int timestamp) {
+        this.credits.dropThrough(timestamp);
+    }
+
+    /**
+     * Return the log of committed operations ordered by timestamp.
+     *
+     * @return OperationLog
+     */
+    public OperationLog getOperationLog() {
+        return this.operations;
+    }
+
+    /**
+     * Return the low-watermark of timestamps known to be applied on all replicas.
+     *
+     * @return int
+     */
+    public int getWatermark() {
+        return this.watermark.get();
+    }
+
+    /**
+     * Move the watermark forward, a lower value than the current one is ignored.
+     *
+     * @param watermark
+     */
+    public void advanceWatermark(int watermark) {
+        this.watermark.accumulateAndGet(watermark, Math::max);
+    }
+
+    /**
+     * Return the number of entries in the committed log.
+     *
+     * @return int
+     */
+    public int committedLogSize() {
+        return this.committed.size();
+    }
+
+    /**
+     * Drop the committed logs at or below the watermark which are older than the dedup window,
+     * so the retries of front end within the window can still be deduplicated.
+     *
+     * @param dedupWindow
+     *      - in seconds
+     * @param archive
+     *      - container for the dropped logs, null to drop them only
+     * @return int
+     *      - number of dropped logs
+     */
+    public int compactLog(int dedupWindow, JsonArray archive) {
+        CommittedLog.Visitor visitor = null;
+        if (archive != null) {
+            visitor = (msb, lsb, timestamp, eventId) -> {
+                JsonObject obj = new JsonObject();
+                obj.addProperty("uuid", CommittedLog.toUuid(msb, lsb));
+                obj.addProperty("timestamp", timestamp);
+                obj.addProperty("eventId", eventId);
+                archive.add(obj);
+            };
+        }
+
+        return this.committed.compact(this.watermark.get(), CommittedLog.now() - dedupWindow, visitor);
+    }
+
     /**
      * Restore the backup data form the primary and return the result.
      *
@@ -145,9 +627,22 @@ public class EventList {
                 this.lock.writeLock().lock();
             }
 
-            restoreEvents(data);
-            restoreLog(data);
-            EventServiceDriver.lamportTimestamps.set(data.get("timestamp").getAsInt());
+            // a persistent list is restored into the next generation, which replaces the current one when complete
+            int generation = (this.storage == null) ? 0 : this.storage.getGeneration() + 1;
+            File dir = (this.storage == null) ? null : this.storage.generationDir(generation, true);
+
+            restore(data, dir);
+
+            if (this.storage != null) {
+                this.storage.switchGeneration(generation,
+                        Math.toIntExact(EventServiceDriver.lamportTimestamps.get()), this.watermark.get());
+            }
+
+            // the restored data replaces the local snapshot, and with it the write-ahead log of the old data
+            SnapshotFile snapshotFile = this.snapshotFile;
+            if (snapshotFile != null) {
+                writeSnapshot(snapshotFile);
+            }
 
             result = true;
         }
@@ -163,14 +658,95 @@ public class EventList {
         return result;
     }
 
+    /**
+     * Overwrite the current data with the backup data,
+     * then apply the operations shipped with a snapshot, which were committed on the primary after it.
+     *
+     * @param data
+     * @param dir
+     *      - generation directory to persist into, null if nothing is persisted
+     * @throws Exception
+     */
+    private void restore(JsonObject data, File dir) throws Exception {
+        int timestamp = data.get("timestamp").getAsInt();
+
+        // the held tickets go away with the old events, their purchases fail at confirm
+        this.holds.clear();
+        this.credits.clear();
+        restoreEvents(data, dir);
+        restoreLog(data, dir);
+        this.operations.reset(timestamp);
+
+        if (data.get("watermark") != null) {
+            this.watermark.set(data.get("watermark").getAsInt());
+        }
+
+        JsonArray outbox = (JsonArray) data.get("outbox");
+        if (outbox != null) {
+            for (int i = 0; i < outbox.size(); i++) {
+                this.credits.add(Operation.fromJsonObject((JsonObject) outbox.get(i)));
+            }
+        }
+
+        JsonArray operations = (JsonArray) data.get("operations");
+        if (operations != null) {
+            for (int i = 0; i < operations.size(); i++) {
+                replay(Operation.fromJsonObject((JsonObject) operations.get(i)), timestamp);
+            }
+        }
+
+        EventServiceDriver.lamportTimestamps.set(Math.max(timestamp, this.operations.getLastTimestamp()));
+    }
+
+    /**
+     * Apply the operations the primary committed after the timestamp this service reported on restart,
+     * so a restarted service catches up without a full backup.
+     * Operations which arrived by replication meanwhile are skipped by their uuid.
+     *
+     * @param data
+     * @return boolean
+     *      - false if the local data is behind the delta, a full backup is needed then
+     */
+    public boolean applyDelta(JsonObject data) {
+        int after = data.get("after").getAsInt();
+        JsonArray operations = (JsonArray) data.get("operations");
+        int applied = 0;
+
+        this.lock.writeLock().lock();
+        try {
+            if (EventServiceDriver.lamportTimestamps.get() < after) {
+                return false;
+            }
+
+            for (int i = 0; i < operations.size(); i++) {
+                if (replay(Operation.fromJsonObject((JsonObject) operations.get(i)), after)) {
+                    applied++;
+                }
+            }
+
+            EventServiceDriver.lamportTimestamps.advanceTo(this.operations.getLastTimestamp());
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+
+        System.out.println("[Backup] Applied " + applied + " operations after timestamp #" + after +
+                ", timestamp #" + EventServiceDriver.lamportTimestamps.get());
+        awaitDurable();
+        return true;
+    }
+
     /**
      * Overwrite the current event list data with the new one.
      *
      * @param data
+     * @param dir
+     *      - generation directory to persist into, null if nothing is persisted
      * @throws Exception
      */
-    private void restoreEvents(JsonObject data) throws Exception {
-        this.events.clear();
+    private void restoreEvents(JsonObject data, File dir) throws Exception {
+        EventStore events = (dir == null) ? newStore() : new MappedEventTable(dir);
+        EventIndex index = new EventIndex();
         JsonArray array = (JsonArray) data.get("eventlist");
 
         for (int i = 0; i < array.size(); i++) {
@@ -185,25 +761,69 @@ public class EventList {
                     .setPurchased(purchased)
                     .build();
 
-            this.events.put(eventId, newEvent);
+            events.set(eventId, newEvent);
+            index.add(newEvent);
         }
+
+        if (events instanceof MappedEventTable) {
+            ((MappedEventTable) events).force();
+        }
+
+        // swap the whole table at once, so readers never see a half restored list
+        EventStore old = this.events;
+        this.events = events;
+        this.index = index;
+        touch();
+
+        if (old instanceof MappedEventTable) {
+            ((MappedEventTable) old).close();
+        }
+    }
+
+    /**
+     * Create an empty store of the kind chosen for this EventList.
+     *
+     * @return EventStore
+     */
+    private EventStore newStore() {
+        return this.offHeap ? new OffHeapEventTable() : new EventTable();
     }
 
     /**
      * Overwrite the current log data with new one.
      *
      * @param data
+     * @param dir
+     *      - generation directory to persist into, null if nothing is persisted
      * @throws Exception
      */
-    private void restoreLog(JsonObject data) throws Exception {
-        this.committed.clear();
+    private void restoreLog(JsonObject data, File dir) throws Exception {
+        CommittedLog committed = new CommittedLog();
+        CommittedLogJournal journal = (dir == null) ? null : new CommittedLogJournal(this.storage.journalFile(dir));
         JsonArray array = (JsonArray) data.get("committedlog");
 
         for (int i = 0; i < array.size(); i++) {
             JsonObject obj = (JsonObject) array.get(i);
-            int[] values = new int[] {obj.get("timestamp").getAsInt(), obj.get("eventId").getAsInt()};
+            committed.put(obj.get("uuid").getAsString(),
+                    obj.get("timestamp").getAsInt(), obj.get("eventId").getAsInt());
+
+            if (journal != null) {
+                journal.put(obj.get("uuid").getAsString(),
+                        obj.get("timestamp").getAsInt(), obj.get("eventId").getAsInt());
+            }
+        }
+
+        if (journal != null) {
+            journal.force();
+        }
+
+        // swap the whole log at once, so the dedup check never sees a half restored log
+        CommittedLogJournal old = this.journal;
+        this.committed = committed;
+        this.journal = journal;
 
-            this.committed.put(obj.get("uuid").getAsString(), values);
+        if (old != null) {
+            old.close();
         }
     }
 
@@ -214,40 +834,87 @@ public class EventList {
      * @return boolean
      */
     boolean containsLog(String uuid) {
-        boolean result;
-
-        this.lock.readLock().lock();
-        result = this.committed.containsKey(uuid);
-        this.lock.readLock().unlock();
+        return this.committed.contains(uuid);
+    }
 
-        return result;
+    /**
+     * Return the timestamp committed with the uuid.
+     *
+     * @param uuid
+     * @return int
+     *      - 0 if not committed
+     */
+    int getLogTimestamp(String uuid) {
+        return this.committed.getTimestamp(uuid);
     }
 
     /**
-     * Return the timestamp and the event data.
+     * Add a hold of the tickets reserved for the uuid.
      *
      * @param uuid
-     * @return int[]
+     * @param eventId
+     * @param tickets
+     * @return boolean
+     *      - false if the uuid is already held
      */
-    int[] getLogDetails(String uuid) {
-        int[] result;
+    boolean hold(String uuid, int eventId, int tickets) {
+        return this.holds.put(uuid, eventId, tickets);
+    }
 
-        this.lock.readLock().lock();
-        result = this.committed.get(uuid);
-        this.lock.readLock().unlock();
+    /**
+     * Take over the tickets of the hold of the uuid, leaving the uuid claimed until its confirm or abort.
+     *
+     * @param uuid
+     * @param eventId
+     * @return PurchaseHolds.Hold
+     *      - null if the hold has been released or expired already
+     */
+    PurchaseHolds.Hold takeHold(String uuid, int eventId) {
+        return this.holds.take(uuid, eventId);
+    }
 
-        return result;
+    /**
+     * Remove the hold of the uuid.
+     *
+     * @param uuid
+     * @return PurchaseHolds.Hold
+     *      - null if the hold has been confirmed, released, or expired already
+     */
+    PurchaseHolds.Hold removeHold(String uuid) {
+        return this.holds.remove(uuid);
     }
 
     /**
-     * Rollback a commit if the request to user service fails.
+     * Check if the uuid is held by a purchase waiting for its confirm.
      *
      * @param uuid
+     * @return boolean
      */
-    void rollbackCommit(String uuid) {
-        this.lock.writeLock().lock();
-        this.committed.remove(uuid);
-        this.lock.writeLock().unlock();
+    boolean isHeld(String uuid) {
+        return this.holds.contains(uuid);
+    }
+
+    /**
+     * Release the holds older than the time to live, their tickets are available again.
+     *
+     * @param ttl
+     *      - in milliseconds
+     * @return int
+     *      - number of holds released
+     */
+    public int expireHolds(long ttl) {
+        int released = 0;
+
+        for (String uuid : this.holds.expired(ttl)) {
+            PurchaseHolds.Hold hold = this.holds.get(uuid);
+            Event event = (hold == null) ? null : get(hold.eventId);
+
+            if (event != null && event.release(uuid)) {
+                released++;
+            }
+        }
+
+        return released;
     }
 
     /**
@@ -258,11 +925,360 @@ public class EventList {
      * @param eventId
      */
     void commit(String uuid, int timestamp, int eventId) {
-        int[] logDeatils = new int[] {timestamp, eventId};
+        this.committed.put(uuid, timestamp, eventId);
+
+        CommittedLogJournal journal = this.journal;
+        if (journal != null) {
+            journal.put(uuid, timestamp, eventId);
+        }
+    }
+
+    /**
+     * Commit a purchase into the committed log and the operation log.
+     *
+     * @param uuid
+     * @param timestamp
+     * @param eventId
+     * @param userId
+     * @param tickets
+     */
+    void commitPurchase(String uuid, int timestamp, int eventId, int userId, int tickets) {
+        commit(uuid, timestamp, eventId);
+        Operation op = Operation.purchase(timestamp, uuid, eventId, userId, tickets);
+        this.operations.append(op);
+        this.credits.add(op);
+        log(op);
+    }
+
+    /**
+     * Commit an abort operation into the operation log, it only keeps its timestamp.
+     *
+     * @param op
+     */
+    void commitAbort(Operation op) {
+        this.operations.append(op);
+        log(op);
+    }
+
+    /**
+     * For secondaries to apply an abort operation of the primary, which only moves the clock to its timestamp.
+     * An abort applied before is ignored.
+     *
+     * @param op
+     */
+    public void applyAbort(Operation op) {
+        lockForPurchase();
+        try {
+            if (op.getTimestamp() <= EventServiceDriver.lamportTimestamps.get()) {
+                return;
+            }
+
+            commitAbort(op);
+            EventServiceDriver.lamportTimestamps.advanceTo(op.getTimestamp());
+        }
+        finally {
+            unlockFromPurchase();
+        }
+
+        System.out.println("[EventList] Timestamp #" + op.getTimestamp() +
+                " has been committed as an aborted purchase of uuid: " + op.getUuid());
+    }
+
+    /**
+     * Append the Operation into the write-ahead log if there is one.
+     *
+     * @param op
+     */
+    private void log(Operation op) {
+        WriteAheadLog wal = this.wal;
+        if (wal != null) {
+            wal.append(op);
+        }
+    }
+
+    /**
+     * Wait until the operations applied by the calling thread are durable in the write-ahead log.
+     * Return at once if there is no write-ahead log.
+     */
+    public void awaitDurable() {
+        WriteAheadLog wal = this.wal;
+        if (wal != null) {
+            wal.awaitDurable();
+        }
+    }
+
+    /**
+     * Wait until the operations applied so far by any thread are durable in the write-ahead log,
+     * for a batch applied on several threads.
+     * Return at once if there is no write-ahead log.
+     */
+    public void awaitAllDurable() {
+        WriteAheadLog wal = this.wal;
+        if (wal != null) {
+            wal.awaitAllDurable();
+        }
+    }
+
+    /**
+     * Open the local snapshot file, and restore the snapshot left in it if there is no data directory.
+     * Must be called before the EventList is shared.
+     *
+     * @param path
+     * @throws IOException
+     */
+    public void openSnapshotFile(String path) throws IOException {
+        SnapshotFile snapshotFile = new SnapshotFile(new File(path));
+        JsonObject data = snapshotFile.load();
+
+        if (data != null && this.storage == null) {
+            try {
+                restore(data, null);
+            }
+            catch (Exception e) {
+                throw new IOException("Unable to restore snapshot " + path, e);
+            }
+
+            System.out.println("[Snapshot] " + this.events.size() + " events and " + this.committed.size() +
+                    " committed logs restored with timestamp #" + EventServiceDriver.lamportTimestamps.get());
+        }
+
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Check if there is a local snapshot file.
+     *
+     * @return boolean
+     */
+    public boolean hasSnapshotFile() {
+        return this.snapshotFile != null;
+    }
+
+    /**
+     * Write a new local snapshot and truncate the write-ahead log it covers.
+     *
+     * @return int
+     *      - Lamport Timestamp of the snapshot, -1 if there is no snapshot file or a newer one was written
+     * @throws IOException
+     */
+    public int snapshot() throws IOException {
+        SnapshotFile snapshotFile = this.snapshotFile;
+        return (snapshotFile == null) ? -1 : writeSnapshot(snapshotFile);
+    }
+
+    /**
+     * Open the local snapshot for shipping, with the operations committed after it.
+     * A new snapshot is written first if there is none yet, or the operation log no longer covers the old one.
+     *
+     * @return Snapshot
+     * @throws IOException
+     */
+    public Snapshot openSnapshot() throws IOException {
+        SnapshotFile snapshotFile = this.snapshotFile;
+        if (snapshotFile == null) {
+            throw new IOException("There is no local snapshot file");
+        }
+
+        Snapshot snapshot = snapshotFile.open();
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (snapshot != null) {
+                List<Operation> operations = this.operations.range(snapshot.getTimestamp(), Integer.MAX_VALUE);
+
+                // check again after the range, the log may have been truncated meanwhile
+                if (this.operations.covers(snapshot.getTimestamp())) {
+                    snapshot.setOperations(operations);
+                    return snapshot;
+                }
+
+                snapshot.close();
+            }
+
+            writeSnapshot(snapshotFile);
+            snapshot = snapshotFile.open();
+        }
+
+        if (snapshot != null) {
+            snapshot.close();
+        }
+        throw new IOException("Unable to open a snapshot covered by the operation log");
+    }
+
+    /**
+     * Take a cut of the data under the write lock, which only copies the inventories and the committed log,
+     * then encode it into the snapshot file without blocking the writers.
+     * The write-ahead log entries reflected by the cut are truncated once the snapshot is durable.
+     *
+     * @param snapshotFile
+     * @return int
+     *      - Lamport Timestamp of the snapshot, -1 if a newer one was written
+     * @throws IOException
+     */
+    private int writeSnapshot(SnapshotFile snapshotFile) throws IOException {
+        long cut;
+        EventStore events;
+        long[] inventories;
+        CommittedLog committed;
+        List<Operation> outbox;
+        int timestamp;
+        int watermark;
+        long walSequence;
 
         this.lock.writeLock().lock();
-        this.committed.put(uuid, logDeatils);
-        this.lock.writeLock().unlock();
+        try {
+            cut = this.cuts.incrementAndGet();
+            events = this.events;
+            inventories = new long[events.size()];
+            Map<Integer, Integer> held = this.holds.heldByEvent();
+            for (int i = 0; i < inventories.length; i++) {
+                Event event = events.get(i);
+                if (event != null) {
+                    // nothing is logged for a hold, so its tickets are still available in the snapshot
+                    inventories[i] = Event.unhold(event.getInventory(), held.getOrDefault(event.getEventId(), 0));
+                }
+            }
+
+            committed = this.committed.copy();
+            outbox = this.credits.copy();
+            // every write allocates its timestamp inside the gate
+            timestamp = Math.toIntExact(EventServiceDriver.lamportTimestamps.get());
+            watermark = this.watermark.get();
+            walSequence = (this.wal == null) ? 0 : this.wal.getSequence();
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+
+        if (!snapshotFile.write(cut, events, inventories, committed, outbox,
+                timestamp, watermark, walSequence)) {
+            return -1;
+        }
+
+        // the data directory must be on the disk before the log entries which may not be there yet are dropped
+        checkpoint();
+
+        WriteAheadLog wal = this.wal;
+        if (wal != null) {
+            wal.truncate(walSequence);
+        }
+
+        return timestamp;
+    }
+
+    /**
+     * Open the write-ahead log, replay the entries after the local snapshot on top of the current data,
+     * and start its flusher. A write-ahead log always comes with a snapshot file, by default next to it,
+     * so restoring a full backup or a snapshot can truncate the log.
+     * Operations already in the data directory are skipped.
+     * Must be called before the EventList is shared.
+     *
+     * @param path
+     * @param flushInterval
+     *      - in milliseconds
+     * @param flushSize
+     *      - in bytes
+     * @throws IOException
+     */
+    public void openWriteAheadLog(String path, int flushInterval, int flushSize) throws IOException {
+        if (this.snapshotFile == null) {
+            openSnapshotFile(path + ".snapshot");
+        }
+
+        WriteAheadLog wal = new WriteAheadLog(new File(path), flushInterval, flushSize);
+        // without a data directory the log starts right at the snapshot
+        int recovered = (this.storage == null) ? 0 : Math.toIntExact(EventServiceDriver.lamportTimestamps.get());
+        int[] replayed = new int[1];
+
+        wal.replay(this.snapshotFile.getWalSequence(), op -> {
+            if (replay(op, recovered)) {
+                replayed[0]++;
+            }
+        });
+
+        EventServiceDriver.lamportTimestamps.advanceTo(this.operations.getLastTimestamp());
+        this.wal = wal;
+        new Thread(wal).start();
+
+        System.out.println("[WAL] Replayed " + replayed[0] + " operations, timestamp #" +
+                EventServiceDriver.lamportTimestamps.get());
+    }
+
+    /**
+     * Apply an Operation from the write-ahead log or shipped with a snapshot if it is not in the data yet.
+     *
+     * @param op
+     * @param recovered
+     * @return boolean
+     *      - true if applied
+     */
+    private boolean replay(Operation op, int recovered) {
+        if (op.getType() == Operation.Type.CREDIT) {
+            if (!this.credits.remove(op.getTimestamp(), op.getUuid())) {
+                return false;
+            }
+
+            log(op);
+            return true;
+        }
+
+        if (op.getType() == Operation.Type.ABORT) {
+            // the uuid of an aborted purchase may be committed later by a retry
+            if (op.getTimestamp() <= recovered || this.operations.get(op.getTimestamp()) != null) {
+                return false;
+            }
+
+            commitAbort(op);
+            return true;
+        }
+
+        if (op.getType() == Operation.Type.REFUND) {
+            // the data directory doesn't keep the outbox, the credit of the refunded purchase is dropped anyway
+            this.credits.remove(getLogTimestamp(op.getUuid()), op.getUuid());
+            if (op.getTimestamp() <= recovered || this.operations.get(op.getTimestamp()) != null) {
+                return false;
+            }
+
+            Event event = this.events.get(op.getEventId());
+            if (event == null || !event.moveTickets(-op.getTickets())) {
+                return false;
+            }
+            inventoryChanged(event);
+
+            this.operations.append(op);
+            log(op);
+            return true;
+        }
+
+        if (op.getTimestamp() <= recovered || containsLog(op.getUuid())) {
+            // already in the data, but the data directory doesn't keep the outbox
+            if (op.getType() == Operation.Type.PURCHASE && getLogTimestamp(op.getUuid()) == op.getTimestamp()) {
+                this.credits.add(op);
+            }
+            return false;
+        }
+
+        if (op.getType() == Operation.Type.CREATE) {
+            Event newEvent = new Event.EventBuilder().setEventId(op.getEventId()).setEventName(op.getEventName())
+                    .setCreateUserId(op.getUserId()).setNumtickets(op.getTickets()).build();
+            this.events.set(op.getEventId(), newEvent);
+            this.index.add(this.events.get(op.getEventId()));
+            touch();
+        }
+        else {
+            Event event = this.events.get(op.getEventId());
+            if (event == null || !event.moveTickets(op.getTickets())) {
+                return false;
+            }
+
+            inventoryChanged(event);
+        }
+
+        commit(op.getUuid(), op.getTimestamp(), op.getEventId());
+        this.operations.append(op);
+        if (op.getType() == Operation.Type.PURCHASE) {
+            this.credits.add(op);
+        }
+        log(op);
+        return true;
     }
 
     /**
@@ -279,36 +1295,44 @@ public class EventList {
          */
         if (EventServiceDriver.state != State.PRIMARY &&
                 timestamp.get(0) != null &&
-                timestamp.get(0) != this.committed.get(uuid)[0]) {
+                timestamp.get(0) != getLogTimestamp(uuid)) {
             System.out.println("[EventList] uuid doesn't match with timestamp, requesting for full backup...");
             FullBackup fb = new FullBackup();
             fb.requestForBackup(false);
         }
         else {
             System.out.println("[EventList] uuid: " + uuid +
-                    " has already been committed with timestamp #" + this.committed.get(uuid)[0]);
+                    " has already been committed with timestamp #" + getLogTimestamp(uuid));
         }
     }
 
     /**
-     * Lock read from outside for backup usage.
+     * Lock read from outside for purchases, so buyers share the lock and only exclude backup and restore.
+     * The primary holds it over a whole group of confirms, so a snapshot never sees a timestamp allocated for them
+     * before every purchase of the group is committed.
      */
-    public void lockForBackup() {
+    public void lockForPurchase() {
         this.lock.readLock().lock();
-
-        for (Event event : events.values()) {
-            event.lockForBackup();
-        }
     }
 
     /**
      * Unlock read from outside.
      */
-    public void unlockFromBackup() {
-        for (Event event : events.values()) {
-            event.unlockFromBackup();
-        }
-
+    public void unlockFromPurchase() {
         this.lock.readLock().unlock();
     }
+
+    /**
+     * Lock write from outside for backup usage, block adds and purchases to get a consistent snapshot.
+     */
+    public void lockForBackup() {
+        this.lock.writeLock().lock();
+    }
+
+    /**
+     * Unlock write from outside.
+     */
+    public void unlockFromBackup() {
+        this.lock.writeLock().unlock();
+    }
 }
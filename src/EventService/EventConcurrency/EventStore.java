@@ -0,0 +1,42 @@
+package EventService.EventConcurrency;
+
+/**
+ * Storage of the Events of EventList indexed by eventId.
+ * Readers never lock, writers are coordinated by the owner (EventList).
+ */
+interface EventStore {
+
+    /**
+     * Lock-free get method.
+     *
+     * @param eventId
+     * @return Event
+     *      - null if the event doesn't exist
+     */
+    Event get(int eventId);
+
+    /**
+     * Return the number of published events.
+     *
+     * @return int
+     */
+    int size();
+
+    /**
+     * Append an Event at the end of the store and return its index.
+     * Must be called by one writer at a time.
+     *
+     * @param event
+     * @return int
+     */
+    int append(Event event);
+
+    /**
+     * Put an Event at a particular index, used by restoring the backup data.
+     * Must be called by one writer at a time.
+     *
+     * @param eventId
+     * @param event
+     */
+    void set(int eventId, Event event);
+}
@@ -0,0 +1,96 @@
+package EventService.EventConcurrency;
+
+/**
+ * Segmented, append-only table of Events indexed by eventId.
+ * Readers index directly into the segments without lock,
+ * only the writers have to be coordinated by the owner (EventList).
+ */
+class EventTable implements EventStore {
+    private static final int SEGMENT_SHIFT = 10;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private volatile Event[][] segments;
+    private volatile int size;
+
+    /**
+     * Constructor of EventTable.
+     */
+    EventTable() {
+        this.segments = new Event[1][];
+        this.size = 0;
+    }
+
+    /**
+     * Lock-free get method.
+     * Reading the volatile size first guarantees that every slot below it has been published.
+     *
+     * @param eventId
+     * @return Event
+     *      - null if the event doesn't exist
+     */
+    @Override
+    public Event get(int eventId) {
+        if (eventId < 0 || eventId >= this.size) {
+            return null;
+        }
+
+        Event[][] segments = this.segments;
+        return segments[eventId >>> SEGMENT_SHIFT][eventId & SEGMENT_MASK];
+    }
+
+    /**
+     * Return the number of published events.
+     *
+     * @return int
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Append an Event at the end of the table and return its index.
+     * Must be called by one writer at a time.
+     *
+     * @param event
+     * @return int
+     */
+    @Override
+    public int append(Event event) {
+        int eventId = this.size;
+        set(eventId, event);
+
+        return eventId;
+    }
+
+    /**
+     * Put an Event at a particular index, used by restoring the backup data.
+     * Must be called by one writer at a time.
+     *
+     * @param eventId
+     * @param event
+     */
+    @Override
+    public void set(int eventId, Event event) {
+        int segmentIndex = eventId >>> SEGMENT_SHIFT;
+        Event[][] segments = this.segments;
+
+        if (segmentIndex >= segments.length) {
+            Event[][] newSegments = new Event[Math.max(segments.length * 2, segmentIndex + 1)][];
+            System.arraycopy(segments, 0, newSegments, 0, segments.length);
+            segments = newSegments;
+        }
+        if (segments[segmentIndex] == null) {
+            segments[segmentIndex] = new Event[SEGMENT_SIZE];
+        }
+
+        segments[segmentIndex][eventId & SEGMENT_MASK] = event;
+
+        // publish the directory before the size, so readers never see a size without its segment
+        this.segments = segments;
+        if (eventId >= this.size) {
+            this.size = eventId + 1;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package EventService.EventConcurrency;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * InventoryStripes class to split the available tickets of a hot Event across padded sub-counters.
+ * Buyers claim from the stripe of their thread with compare-and-set and only look at the others when it runs short,
+ * so a flash sale on one event no longer serializes on a single word.
+ * Moving tickets between stripes, or back into the Event, holds the write side of the lock,
+ * so readers summing the stripes under an optimistic read always get an exact total.
+ */
+class InventoryStripes {
+    static final int COUNT = Math.min(16,
+            Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors(), 1) * 2 - 1));
+    private static final int MASK = COUNT - 1;
+    private static final int PAD = 16; // ints per stripe, one cache line
+    private static final long COOL_WINDOW = 1_000_000_000L; // 1 second
+    private static final int COOL_OPERATIONS = 64; // fewer operations in a window means the event cooled down
+
+    // outcomes of an update
+    static final int DONE = 0;
+    static final int SHORT = 1;
+    static final int FOLDED = 2;
+
+    // a stripe folded back into the Event, so a late buyer goes back to the single counter
+    private static final int RETIRED = -1;
+
+    private final AtomicIntegerArray counters;
+    private final StampedLock lock;
+    private final AtomicInteger operations; // in the current window
+    private volatile long windowStart;
+
+    /**
+     * Constructor of InventoryStripes, every stripe starts empty.
+     */
+    InventoryStripes() {
+        this.counters = new AtomicIntegerArray(COUNT * PAD);
+        this.lock = new StampedLock();
+        this.operations = new AtomicInteger(0);
+        this.windowStart = System.nanoTime();
+    }
+
+    /**
+     * Return the lock guarding the moves between stripes.
+     *
+     * @return StampedLock
+     */
+    StampedLock getLock() {
+        return this.lock;
+    }
+
+    /**
+     * Claim tickets from the stripe of the calling thread, or the next ones if it runs short.
+     * Negative number of tickets puts them back into the stripe of the calling thread.
+     *
+     * @param tickets
+     * @return int
+     *      - DONE, SHORT if no single stripe has enough, or FOLDED
+     */
+    int update(int tickets) {
+        int home = home();
+
+        for (int i = 0; i < COUNT; i++) {
+            int slot = ((home + i) & MASK) * PAD;
+
+            while (true) {
+                int avail = this.counters.get(slot);
+                if (avail == RETIRED) {
+                    return FOLDED;
+                }
+                if (avail < tickets) {
+                    break;
+                }
+                if (this.counters.compareAndSet(slot, avail, avail - tickets)) {
+                    return DONE;
+                }
+            }
+        }
+
+        return SHORT;
+    }
+
+    /**
+     * Return the total of the stripes, the caller validates it with the lock.
+     *
+     * @return int
+     */
+    int sum() {
+        int sum = 0;
+
+        for (int i = 0; i < COUNT; i++) {
+            sum += Math.max(this.counters.get(i * PAD), 0);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Spread the tickets evenly over the stripes. Must hold the write lock.
+     * Buyers update the stripes without the lock, so the tickets are added to what a put back left there
+     * after the stripes were drained.
+     *
+     * @param avail
+     */
+    void fill(int avail) {
+        for (int i = 0; i < COUNT; i++) {
+            this.counters.getAndAdd(i * PAD, avail / COUNT + ((i < avail % COUNT) ? 1 : 0));
+        }
+    }
+
+    /**
+     * Take every ticket out of the stripes. Must hold the write lock.
+     *
+     * @return int
+     *      - -1 if the stripes have been folded
+     */
+    int drain() {
+        return take(0);
+    }
+
+    /**
+     * Take every ticket out of the stripes and retire them. Must hold the write lock.
+     *
+     * @return int
+     *      - -1 if the stripes have been folded already
+     */
+    int retire() {
+        return take(RETIRED);
+    }
+
+    /**
+     * Count an operation and check if the event cooled down at the end of the window.
+     *
+     * @return boolean
+     */
+    boolean cooled() {
+        int operations = this.operations.incrementAndGet();
+        long now = System.nanoTime();
+
+        if (now - this.windowStart < COOL_WINDOW) {
+            return false;
+        }
+
+        this.windowStart = now;
+        this.operations.set(0);
+        return operations < COOL_OPERATIONS;
+    }
+
+    /**
+     * Swap every stripe with the value and return their total.
+     *
+     * @param value
+     * @return int
+     */
+    private int take(int value) {
+        if (this.counters.get(0) == RETIRED) {
+            return -1;
+        }
+
+        int sum = 0;
+        for (int i = 0; i < COUNT; i++) {
+            sum += this.counters.getAndSet(i * PAD, value);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Return the home stripe of the calling thread.
+     *
+     * @return int
+     */
+    private static int home() {
+        return (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 40) & MASK;
+    }
+}
@@ -0,0 +1,148 @@
+package EventService.EventConcurrency;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe ListCache to keep the pre-encoded JSON bytes of the event list.
+ * The bytes are tagged with the version of EventList they were built from,
+ * and are patched only for the events whose inventory moved since the last build.
+ */
+class ListCache {
+    private final ReentrantLock lock;
+    private volatile Snapshot snapshot;
+    private Fragment[] fragments; // guarded by lock
+
+    /**
+     * Immutable pair of version and encoded bytes.
+     */
+    private static class Snapshot {
+        private final long version;
+        private final byte[] bytes;
+
+        /**
+         * Constructor of Snapshot.
+         *
+         * @param version
+         * @param bytes
+         */
+        private Snapshot(long version, byte[] bytes) {
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Encoded bytes of one event and the inventory it was encoded from.
+     */
+    private static class Fragment {
+        private final Event event;
+        private final long inventory;
+        private final byte[] bytes;
+
+        /**
+         * Constructor of Fragment.
+         *
+         * @param event
+         * @param inventory
+         * @param bytes
+         */
+        private Fragment(Event event, long inventory, byte[] bytes) {
+            this.event = event;
+            this.inventory = inventory;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Constructor of ListCache.
+     */
+    ListCache() {
+        this.lock = new ReentrantLock();
+        this.snapshot = new Snapshot(-1, null);
+        this.fragments = new Fragment[0];
+    }
+
+    /**
+     * Return the encoded list of the version, rebuild it if the cached one is stale.
+     * The version must be read by the caller before reading the events,
+     * so a change racing with the build always leaves a newer version behind.
+     *
+     * @param version
+     * @param events
+     * @return byte[]
+     */
+    byte[] get(long version, EventStore events) {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot.version == version) {
+            return snapshot.bytes;
+        }
+
+        this.lock.lock();
+        try {
+            // another request may have rebuilt it while we were waiting
+            snapshot = this.snapshot;
+            if (snapshot.version == version) {
+                return snapshot.bytes;
+            }
+
+            byte[] bytes = rebuild(events);
+            if (version > snapshot.version) {
+                this.snapshot = new Snapshot(version, bytes);
+            }
+
+            return bytes;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Concatenate the fragments of every event, re-encode only the changed ones.
+     * Must be called with the lock.
+     *
+     * @param events
+     * @return byte[]
+     */
+    private byte[] rebuild(EventStore events) {
+        int size = events.size();
+        boolean keepFragments = !(events instanceof OffHeapEventTable);
+        if (keepFragments && this.fragments.length < size) {
+            Fragment[] fragments = new Fragment[Math.max(this.fragments.length * 2, size)];
+            System.arraycopy(this.fragments, 0, fragments, 0, this.fragments.length);
+            this.fragments = fragments;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('[');
+        boolean firstEvent = true;
+
+        for (int i = 0; i < size; i++) {
+            Event event = events.get(i);
+            if (event == null) {
+                continue;
+            }
+
+            long inventory = event.getInventory();
+            Fragment fragment = keepFragments ? this.fragments[i] : null;
+            if (fragment == null || fragment.event != event || fragment.inventory != inventory) {
+                fragment = new Fragment(event, inventory, event.toJsonBytes(inventory));
+
+                // keeping a fragment for every record would bring the object graph back on heap
+                if (keepFragments) {
+                    this.fragments[i] = fragment;
+                }
+            }
+
+            if (!firstEvent) {
+                out.write(',');
+            }
+            out.write(fragment.bytes, 0, fragment.bytes.length);
+            firstEvent = false;
+        }
+
+        out.write(']');
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,135 @@
+package EventService.EventConcurrency;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * OffHeapEventTable backed by memory-mapped files, so the events survive a restart.
+ * The records are mapped segment by segment from records.dat,
+ * and every name chunk of the arena is its own file names-{chunk}.dat.
+ * Inventory updates are written in place and reach the disk with the page cache, or on force.
+ */
+class MappedEventTable extends OffHeapEventTable {
+    private static final String RECORDS = "records.dat";
+
+    private final File dir;
+    private final FileChannel records;
+    private final List<MappedByteBuffer> buffers; // every mapping, for force
+
+    /**
+     * Constructor of MappedEventTable, recover the records already in the directory.
+     *
+     * @param dir
+     * @throws IOException
+     */
+    MappedEventTable(File dir) throws IOException {
+        this.dir = dir;
+        this.records = new RandomAccessFile(new File(dir, RECORDS), "rw").getChannel();
+        this.buffers = new ArrayList<>();
+
+        ByteBuffer[] segments = new ByteBuffer[(int) (this.records.size() / SEGMENT_BYTES)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = allocateSegment(i);
+        }
+
+        List<ByteBuffer> chunks = new ArrayList<>();
+        File chunkFile;
+        while ((chunkFile = chunkFile(chunks.size() + 1)).exists()) {
+            chunks.add(allocateChunk(chunks.size() + 1, (int) chunkFile.length()));
+        }
+
+        recover(segments, chunks.toArray(new ByteBuffer[0]));
+    }
+
+    /**
+     * Map the segment from the records file, the file grows if needed.
+     *
+     * @param segmentIndex
+     * @return ByteBuffer
+     */
+    @Override
+    ByteBuffer allocateSegment(int segmentIndex) {
+        try {
+            return map(this.records, (long) segmentIndex * SEGMENT_BYTES, SEGMENT_BYTES);
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Map the name chunk from its own file, the file is created if needed.
+     *
+     * @param chunk
+     * @param capacity
+     * @return ByteBuffer
+     */
+    @Override
+    ByteBuffer allocateChunk(int chunk, int capacity) {
+        // the mapping stays valid after the channel is closed
+        try (FileChannel channel = new RandomAccessFile(chunkFile(chunk), "rw").getChannel()) {
+            return map(channel, 0, capacity);
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Flush every mapping of the table to the disk.
+     */
+    void force() {
+        synchronized (this.buffers) {
+            for (MappedByteBuffer buffer : this.buffers) {
+                buffer.force();
+            }
+        }
+    }
+
+    /**
+     * Close the records file, the mappings stay valid for the readers still holding the table.
+     */
+    void close() {
+        try {
+            this.records.close();
+        }
+        catch (IOException ignored) {}
+    }
+
+    /**
+     * Map a region of the file in the native byte order and remember it for force.
+     *
+     * @param channel
+     * @param position
+     * @param size
+     * @return ByteBuffer
+     * @throws IOException
+     */
+    private ByteBuffer map(FileChannel channel, long position, int size) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+
+        synchronized (this.buffers) {
+            this.buffers.add(buffer);
+        }
+
+        return buffer.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Return the file of the name chunk.
+     *
+     * @param chunk
+     * @return File
+     */
+    private File chunkFile(int chunk) {
+        return new File(this.dir, "names-" + chunk + ".dat");
+    }
+}
@@ -0,0 +1,358 @@
+package EventService.EventConcurrency;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Append-only table of Events kept outside of the heap.
+ * The fixed-width fields of each event are one record in direct ByteBuffer segments,
+ * and the names are in a separate byte arena, so a large catalog adds no objects for GC to trace.
+ * Events handed out by get are views over the record, the inventory is updated in place.
+ */
+class OffHeapEventTable implements EventStore {
+    private static final int SEGMENT_SHIFT = 16; // 65536 records, 2MB per segment
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int ARENA_CHUNK_SIZE = 1 << 20;
+    private static final int LOCK_STRIPES = 64;
+
+    // layout of a record
+    private static final int RECORD_SIZE = 32;
+    private static final int EVENT_ID = 0;
+    private static final int CREATE_USER_ID = 4;
+    private static final int NUMTICKETS = 8;
+    private static final int NAME_LENGTH = 12;
+    private static final int NAME_CHUNK = 16;
+    private static final int NAME_OFFSET = 20;
+    private static final int INVENTORY = 24;
+
+    // name chunks are numbered from 1, so 0 in the name chunk of a record marks an empty slot
+    private static final int EMPTY = 0;
+
+    static final int SEGMENT_BYTES = RECORD_SIZE * SEGMENT_SIZE;
+
+    private final StampedLock[] locks; // striped by eventId, guard the inventory of records
+    private volatile ByteBuffer[] segments;
+    private volatile ByteBuffer[] chunks;
+    private volatile int size;
+    private int chunkCount; // used by the writer only
+    private int chunkPosition; // used by the writer only
+
+    /**
+     * Constructor of OffHeapEventTable.
+     */
+    OffHeapEventTable() {
+        this.locks = new StampedLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.locks[i] = new StampedLock();
+        }
+
+        this.segments = new ByteBuffer[1];
+        this.chunks = new ByteBuffer[1];
+        this.size = 0;
+        this.chunkCount = 0;
+        this.chunkPosition = ARENA_CHUNK_SIZE;
+    }
+
+    /**
+     * Lock-free get method, return a view of the record.
+     * Reading the volatile size first guarantees that every record below it has been published.
+     *
+     * @param eventId
+     * @return Event
+     *      - null if the event doesn't exist
+     */
+    @Override
+    public Event get(int eventId) {
+        if (eventId < 0 || eventId >= this.size) {
+            return null;
+        }
+
+        ByteBuffer segment = this.segments[eventId >>> SEGMENT_SHIFT];
+        if (segment == null || segment.getInt(offsetOf(eventId) + NAME_CHUNK) == EMPTY) {
+            return null;
+        }
+
+        return new Event(this, eventId);
+    }
+
+    /**
+     * Return the number of published events.
+     *
+     * @return int
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Copy an Event to the end of the table and return its index.
+     * Must be called by one writer at a time.
+     *
+     * @param event
+     * @return int
+     */
+    @Override
+    public int append(Event event) {
+        int eventId = this.size;
+        set(eventId, event);
+
+        return eventId;
+    }
+
+    /**
+     * Copy an Event into a particular index, used by restoring the backup data.
+     * Must be called by one writer at a time.
+     *
+     * @param eventId
+     * @param event
+     */
+    @Override
+    public void set(int eventId, Event event) {
+        ByteBuffer segment = segmentForWrite(eventId);
+        int offset = offsetOf(eventId);
+        byte[] name = event.getEventName().getBytes(StandardCharsets.UTF_8);
+        int nameOffset = allocateName(name);
+
+        segment.putInt(offset + EVENT_ID, eventId);
+        segment.putInt(offset + CREATE_USER_ID, event.getCreateUserId());
+        segment.putInt(offset + NUMTICKETS, event.getNumtickets());
+        segment.putInt(offset + NAME_LENGTH, name.length);
+        segment.putInt(offset + NAME_OFFSET, nameOffset);
+        segment.putLong(offset + INVENTORY, event.getInventory());
+        segment.putInt(offset + NAME_CHUNK, this.chunkCount);
+
+        // publish the record before the size, so readers never see a size without its record
+        if (eventId >= this.size) {
+            this.size = eventId + 1;
+        }
+    }
+
+    /**
+     * CreateUserId getter of the record.
+     *
+     * @param eventId
+     * @return int
+     */
+    int getCreateUserId(int eventId) {
+        return this.segments[eventId >>> SEGMENT_SHIFT].getInt(offsetOf(eventId) + CREATE_USER_ID);
+    }
+
+    /**
+     * Numtickets getter of the record.
+     *
+     * @param eventId
+     * @return int
+     */
+    int getNumtickets(int eventId) {
+        return this.segments[eventId >>> SEGMENT_SHIFT].getInt(offsetOf(eventId) + NUMTICKETS);
+    }
+
+    /**
+     * Decode the name of the record from the arena.
+     *
+     * @param eventId
+     * @return String
+     */
+    String getEventName(int eventId) {
+        ByteBuffer segment = this.segments[eventId >>> SEGMENT_SHIFT];
+        int offset = offsetOf(eventId);
+        byte[] name = new byte[segment.getInt(offset + NAME_LENGTH)];
+
+        // duplicate to read in bulk without moving the position shared by other readers
+        ByteBuffer chunk = this.chunks[segment.getInt(offset + NAME_CHUNK) - 1].duplicate();
+        chunk.position(segment.getInt(offset + NAME_OFFSET));
+        chunk.get(name);
+
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the packed inventory of the record with an optimistic read, retry with read lock if a writer interfered.
+     *
+     * @param eventId
+     * @return long
+     */
+    long getInventory(int eventId) {
+        StampedLock lock = this.locks[eventId & (LOCK_STRIPES - 1)];
+        ByteBuffer segment = this.segments[eventId >>> SEGMENT_SHIFT];
+        int offset = offsetOf(eventId) + INVENTORY;
+
+        long stamp = lock.tryOptimisticRead();
+        long inventory = segment.getLong(offset);
+
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                inventory = segment.getLong(offset);
+            }
+            finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        return inventory;
+    }
+
+    /**
+     * Set the packed inventory of the record if it still equals the expected one.
+     *
+     * @param eventId
+     * @param expect
+     * @param update
+     * @return boolean
+     */
+    boolean compareAndSetInventory(int eventId, long expect, long update) {
+        StampedLock lock = this.locks[eventId & (LOCK_STRIPES - 1)];
+        ByteBuffer segment = this.segments[eventId >>> SEGMENT_SHIFT];
+        int offset = offsetOf(eventId) + INVENTORY;
+
+        long stamp = lock.writeLock();
+        try {
+            if (segment.getLong(offset) != expect) {
+                return false;
+            }
+
+            segment.putLong(offset, update);
+            return true;
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Return the byte offset of the record in its segment.
+     *
+     * @param eventId
+     * @return int
+     */
+    private static int offsetOf(int eventId) {
+        return (eventId & SEGMENT_MASK) * RECORD_SIZE;
+    }
+
+    /**
+     * Return the segment holding the record, grow the directory and allocate the segment if needed.
+     * Must be called by one writer at a time.
+     *
+     * @param eventId
+     * @return ByteBuffer
+     */
+    private ByteBuffer segmentForWrite(int eventId) {
+        int segmentIndex = eventId >>> SEGMENT_SHIFT;
+        ByteBuffer[] segments = this.segments;
+
+        if (segmentIndex >= segments.length) {
+            ByteBuffer[] newSegments = new ByteBuffer[Math.max(segments.length * 2, segmentIndex + 1)];
+            System.arraycopy(segments, 0, newSegments, 0, segments.length);
+            segments = newSegments;
+        }
+        if (segments[segmentIndex] == null) {
+            segments[segmentIndex] = allocateSegment(segmentIndex);
+        }
+
+        this.segments = segments;
+        return segments[segmentIndex];
+    }
+
+    /**
+     * Copy the name into the arena and return its offset in the current chunk.
+     * A name which doesn't fit into the rest of the chunk starts a new chunk,
+     * a name longer than a chunk gets a chunk of its own size.
+     * Must be called by one writer at a time.
+     *
+     * @param name
+     * @return int
+     */
+    private int allocateName(byte[] name) {
+        if (this.chunkPosition + name.length > ARENA_CHUNK_SIZE || this.chunkCount == 0) {
+            ByteBuffer[] chunks = this.chunks;
+            if (this.chunkCount == chunks.length) {
+                ByteBuffer[] newChunks = new ByteBuffer[chunks.length * 2];
+                System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+                chunks = newChunks;
+            }
+
+            chunks[this.chunkCount] = allocateChunk(this.chunkCount + 1, Math.max(ARENA_CHUNK_SIZE, name.length));
+            this.chunks = chunks;
+            this.chunkCount++;
+            this.chunkPosition = 0;
+        }
+
+        int offset = this.chunkPosition;
+        ByteBuffer chunk = this.chunks[this.chunkCount - 1].duplicate();
+        chunk.position(offset);
+        chunk.put(name);
+        this.chunkPosition += name.length;
+
+        return offset;
+    }
+
+    /**
+     * Take over the segments and name chunks which already hold records, used by recovering a persistent table.
+     * The records are appended in the order of eventId and their names are appended to the arena in the same order,
+     * so the last record tells both the size and the end of the arena.
+     * Must be called before the table is shared.
+     *
+     * @param segments
+     * @param chunks
+     */
+    void recover(ByteBuffer[] segments, ByteBuffer[] chunks) {
+        int size = 0;
+        int chunkPosition = 0;
+
+        for (int eventId = segments.length * SEGMENT_SIZE - 1; eventId >= 0; eventId--) {
+            ByteBuffer segment = segments[eventId >>> SEGMENT_SHIFT];
+            int offset = offsetOf(eventId);
+            int chunk = segment.getInt(offset + NAME_CHUNK);
+
+            if (chunk != EMPTY) {
+                size = eventId + 1;
+                if (chunk == chunks.length) {
+                    chunkPosition = segment.getInt(offset + NAME_OFFSET) + segment.getInt(offset + NAME_LENGTH);
+                }
+                break;
+            }
+        }
+
+        this.segments = (segments.length == 0) ? new ByteBuffer[1] : segments;
+        this.chunks = (chunks.length == 0) ? new ByteBuffer[1] : chunks;
+        this.chunkCount = chunks.length;
+        this.chunkPosition = (chunks.length == 0) ? ARENA_CHUNK_SIZE : chunkPosition;
+        this.size = size;
+    }
+
+    /**
+     * Allocate the buffer of a record segment.
+     *
+     * @param segmentIndex
+     * @return ByteBuffer
+     */
+    ByteBuffer allocateSegment(int segmentIndex) {
+        return allocate(SEGMENT_BYTES);
+    }
+
+    /**
+     * Allocate the buffer of a name chunk, chunks are numbered from 1.
+     *
+     * @param chunk
+     * @param capacity
+     * @return ByteBuffer
+     */
+    ByteBuffer allocateChunk(int chunk, int capacity) {
+        return allocate(capacity);
+    }
+
+    /**
+     * Allocate a zeroed direct buffer in the native byte order.
+     *
+     * @param capacity
+     * @return ByteBuffer
+     */
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+}
@@ -0,0 +1,284 @@
+package EventService.EventConcurrency;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Immutable Operation class to record a committed write with its Lamport Timestamp.
+ */
+public class Operation {
+    private static final int BASE_SIZE = 64; // object header, fields, and the uuid String header
+
+    private final Type type;
+    private final int timestamp;
+    private final String uuid;
+    private final int eventId;
+    private final int userId;
+    private final int tickets; // numtickets for create, purchased tickets for purchase
+    private final String eventName;
+
+    /**
+     * Type enum to specify the committed writes.
+     */
+    public enum Type {
+
+        CREATE("create"),
+        PURCHASE("purchase"),
+        CREDIT("credit"),
+        ABORT("abort"),
+        REFUND("refund");
+
+        private final String message;
+
+        /**
+         * Constructor of Type.
+         *
+         * @param message
+         */
+        Type(String message) {
+            this.message = message;
+        }
+
+        /**
+         * Return the type.
+         *
+         * @return String
+         */
+        @Override
+        public String toString() {
+            return this.message;
+        }
+    }
+
+    /**
+     * Constructor of Operation.
+     *
+     * @param type
+     * @param timestamp
+     * @param uuid
+     * @param eventId
+     * @param userId
+     * @param tickets
+     * @param eventName
+     */
+    private Operation(Type type, int timestamp, String uuid, int eventId, int userId, int tickets, String eventName) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.uuid = uuid;
+        this.eventId = eventId;
+        this.userId = userId;
+        this.tickets = tickets;
+        this.eventName = eventName;
+    }
+
+    /**
+     * Return an Operation of creating event.
+     *
+     * @param timestamp
+     * @param uuid
+     * @param eventId
+     * @param eventName
+     * @param createUserId
+     * @param numtickets
+     * @return Operation
+     */
+    public static Operation create(int timestamp, String uuid, int eventId,
+                                   String eventName, int createUserId, int numtickets) {
+        return new Operation(Type.CREATE, timestamp, uuid, eventId, createUserId, numtickets, eventName);
+    }
+
+    /**
+     * Return an Operation of purchasing tickets.
+     *
+     * @param timestamp
+     * @param uuid
+     * @param eventId
+     * @param userId
+     * @param tickets
+     * @return Operation
+     */
+    public static Operation purchase(int timestamp, String uuid, int eventId, int userId, int tickets) {
+        return new Operation(Type.PURCHASE, timestamp, uuid, eventId, userId, tickets, null);
+    }
+
+    /**
+     * Return an Operation of a purchase aborted after its timestamp was allocated.
+     * It changes nothing but keeps the timestamp, so the sequence of timestamps has no gap.
+     *
+     * @param timestamp
+     * @param uuid
+     * @param eventId
+     * @param userId
+     * @param tickets
+     * @return Operation
+     */
+    public static Operation abort(int timestamp, String uuid, int eventId, int userId, int tickets) {
+        return new Operation(Type.ABORT, timestamp, uuid, eventId, userId, tickets, null);
+    }
+
+    /**
+     * Return an Operation of a purchase refunded since the User Service refused its credit.
+     * It puts the tickets back with a timestamp of its own.
+     *
+     * @param timestamp
+     * @param uuid
+     *      - uuid of the purchase refunded
+     * @param eventId
+     * @param userId
+     * @param tickets
+     * @return Operation
+     */
+    public static Operation refund(int timestamp, String uuid, int eventId, int userId, int tickets) {
+        return new Operation(Type.REFUND, timestamp, uuid, eventId, userId, tickets, null);
+    }
+
+    /**
+     * Return an Operation of a credit delivered to the User Service, only used by the write-ahead log.
+     *
+     * @param timestamp
+     *      - timestamp of the purchase credited
+     * @param uuid
+     * @param eventId
+     * @param userId
+     * @param tickets
+     * @return Operation
+     */
+    public static Operation credit(int timestamp, String uuid, int eventId, int userId, int tickets) {
+        return new Operation(Type.CREDIT, timestamp, uuid, eventId, userId, tickets, null);
+    }
+
+    /**
+     * Parse an Operation from the JSON format generated by toJsonObject.
+     *
+     * @param obj
+     * @return Operation
+     */
+    public static Operation fromJsonObject(JsonObject obj) {
+        int timestamp = obj.get("timestamp").getAsInt();
+        String uuid = obj.get("uuid").getAsString();
+        int userId = obj.get("userid").getAsInt();
+
+        String type = obj.get("type").getAsString();
+
+        if (type.equals(Type.CREATE.toString())) {
+            return create(timestamp, uuid, obj.get("eventid").getAsInt(),
+                    obj.get("eventname").getAsString(), userId, obj.get("numtickets").getAsInt());
+        }
+        else if (type.equals(Type.CREDIT.toString())) {
+            return credit(timestamp, uuid, obj.get("eventid").getAsInt(), userId, obj.get("tickets").getAsInt());
+        }
+        else if (type.equals(Type.ABORT.toString())) {
+            return abort(timestamp, uuid, obj.get("eventid").getAsInt(), userId, obj.get("tickets").getAsInt());
+        }
+        else if (type.equals(Type.REFUND.toString())) {
+            return refund(timestamp, uuid, obj.get("eventid").getAsInt(), userId, obj.get("tickets").getAsInt());
+        }
+        else {
+            return purchase(timestamp, uuid, obj.get("eventid").getAsInt(), userId, obj.get("tickets").getAsInt());
+        }
+    }
+
+    /**
+     * Return the JSON format of the Operation, which is also the body of its replication request.
+     *
+     * @return JsonObject
+     */
+    public JsonObject toJsonObject() {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("type", this.type.toString());
+        obj.addProperty("timestamp", this.timestamp);
+        obj.addProperty("uuid", this.uuid);
+        obj.addProperty("eventid", this.eventId);
+        obj.addProperty("userid", this.userId);
+
+        if (this.type == Type.CREATE) {
+            obj.addProperty("eventname", this.eventName);
+            obj.addProperty("numtickets", this.tickets);
+        }
+        else {
+            obj.addProperty("tickets", this.tickets);
+        }
+
+        return obj;
+    }
+
+    /**
+     * Return the uri of the replication request of this Operation.
+     *
+     * @return String
+     */
+    public String getUri() {
+        return (this.type == Type.CREATE) ? "/create" : "/purchase/" + this.eventId;
+    }
+
+    /**
+     * Return the estimated heap size of the Operation in bytes.
+     *
+     * @return int
+     */
+    int estimateSize() {
+        return BASE_SIZE + this.uuid.length() + ((this.eventName == null) ? 0 : 24 + this.eventName.length());
+    }
+
+    /**
+     * Type getter.
+     *
+     * @return Type
+     */
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * Timestamp getter.
+     *
+     * @return int
+     */
+    public int getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Uuid getter.
+     *
+     * @return String
+     */
+    public String getUuid() {
+        return this.uuid;
+    }
+
+    /**
+     * EventId getter.
+     *
+     * @return int
+     */
+    public int getEventId() {
+        return this.eventId;
+    }
+
+    /**
+     * UserId getter.
+     *
+     * @return int
+     */
+    public int getUserId() {
+        return this.userId;
+    }
+
+    /**
+     * Tickets getter.
+     *
+     * @return int
+     */
+    public int getTickets() {
+        return this.tickets;
+    }
+
+    /**
+     * EventName getter.
+     *
+     * @return String
+     */
+    public String getEventName() {
+        return this.eventName;
+    }
+}
@@ -0,0 +1,327 @@
+package EventService.EventConcurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe, append-only OperationLog ordered by Lamport Timestamp.
+ * Operations are kept in fixed-size chunks indexed directly by timestamp,
+ * readers never lock, and old chunks can be truncated from the front as a whole.
+ */
+public class OperationLog {
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int CHUNK_OVERHEAD = 16 + 4 * CHUNK_SIZE; // array header and compressed references
+
+    private final ReentrantLock lock;
+    private final Condition appended;
+    private volatile Directory directory;
+    private volatile int first; // lowest timestamp which can still be read
+    private volatile int last; // highest timestamp with every operation from first to it present
+    private volatile long bytes;
+
+    /**
+     * Immutable directory of chunks, replaced as a whole when it grows or shrinks.
+     */
+    private static class Directory {
+        private final int firstChunk;
+        private final Operation[][] chunks;
+
+        /**
+         * Constructor of Directory.
+         *
+         * @param firstChunk
+         * @param chunks
+         */
+        private Directory(int firstChunk, Operation[][] chunks) {
+            this.firstChunk = firstChunk;
+            this.chunks = chunks;
+        }
+    }
+
+    /**
+     * Constructor of OperationLog.
+     */
+    public OperationLog() {
+        this.lock = new ReentrantLock();
+        this.appended = this.lock.newCondition();
+        reset(0);
+    }
+
+    /**
+     * Append the Operation at the slot of its timestamp.
+     * Operations may arrive out of order, last only moves over a contiguous range.
+     *
+     * @param op
+     */
+    public void append(Operation op) {
+        this.lock.lock();
+        try {
+            int timestamp = op.getTimestamp();
+            if (timestamp < this.first) {
+                return;
+            }
+
+            Operation[] chunk = chunkForWrite(timestamp);
+            int slot = (timestamp - 1) & CHUNK_MASK;
+            if (chunk[slot] == null) {
+                this.bytes += op.estimateSize();
+            }
+            else {
+                this.bytes += op.estimateSize() - chunk[slot].estimateSize();
+            }
+            chunk[slot] = op;
+
+            int last = this.last;
+            while (get(last + 1, this.directory) != null) {
+                last++;
+            }
+
+            if (last != this.last) {
+                this.last = last;
+                this.appended.signalAll();
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Lock-free get method.
+     *
+     * @param timestamp
+     * @return Operation
+     *      - null if the timestamp hasn't been appended or has been truncated
+     */
+    public Operation get(int timestamp) {
+        return get(timestamp, this.directory);
+    }
+
+    /**
+     * Return the operations after the timestamp, at most limit of them, in the order of timestamp.
+     *
+     * @param after
+     * @param limit
+     * @return List
+     */
+    public List<Operation> range(int after, int limit) {
+        List<Operation> list = new ArrayList<>();
+        int last = this.last;
+        Directory directory = this.directory;
+
+        for (int timestamp = Math.max(after + 1, this.first); timestamp <= last && list.size() < limit; timestamp++) {
+            Operation op = get(timestamp, directory);
+            if (op == null) {
+                break; // truncated meanwhile
+            }
+
+            list.add(op);
+        }
+
+        return list;
+    }
+
+    /**
+     * Tail-follow method: wait until there is an operation after the timestamp, then return the range.
+     *
+     * @param after
+     * @param limit
+     * @param timeout
+     *      - in milliseconds
+     * @return List
+     *      - empty if nothing appended within timeout
+     * @throws InterruptedException
+     */
+    public List<Operation> awaitRange(int after, int limit, long timeout) throws InterruptedException {
+        if (this.last <= after) {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+
+            this.lock.lock();
+            try {
+                while (this.last <= after && nanos > 0) {
+                    nanos = this.appended.awaitNanos(nanos);
+                }
+            }
+            finally {
+                this.lock.unlock();
+            }
+        }
+
+        return range(after, limit);
+    }
+
+    /**
+     * Check if every operation after the timestamp is still in the log.
+     *
+     * @param after
+     * @return boolean
+     */
+    public boolean covers(int after) {
+        return after + 1 >= this.first;
+    }
+
+    /**
+     * Drop the chunks whose operations are all below the timestamp.
+     *
+     * @param timestamp
+     */
+    public void truncateBefore(int timestamp) {
+        if (timestamp <= 1) {
+            return;
+        }
+
+        this.lock.lock();
+        try {
+            Directory directory = this.directory;
+            int dropChunks = Math.min(((timestamp - 1) >>> CHUNK_SHIFT) - directory.firstChunk,
+                    directory.chunks.length);
+
+            if (dropChunks <= 0) {
+                return;
+            }
+
+            for (int i = 0; i < dropChunks; i++) {
+                Operation[] chunk = directory.chunks[i];
+                if (chunk == null) {
+                    continue;
+                }
+
+                this.bytes -= CHUNK_OVERHEAD;
+                for (Operation op : chunk) {
+                    if (op != null) {
+                        this.bytes -= op.estimateSize();
+                    }
+                }
+            }
+
+            Operation[][] chunks = new Operation[Math.max(directory.chunks.length - dropChunks, 1)][];
+            System.arraycopy(directory.chunks, dropChunks, chunks, 0, directory.chunks.length - dropChunks);
+
+            int firstChunk = directory.firstChunk + dropChunks;
+            this.first = Math.max(this.first, (firstChunk << CHUNK_SHIFT) + 1);
+            this.directory = new Directory(firstChunk, chunks);
+            if (this.last < this.first - 1) {
+                this.last = this.first - 1;
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Drop everything and start the log right after the timestamp, used by restoring a full backup.
+     *
+     * @param timestamp
+     */
+    public void reset(int timestamp) {
+        this.lock.lock();
+        try {
+            this.directory = new Directory(timestamp >>> CHUNK_SHIFT, new Operation[1][]);
+            this.first = timestamp + 1;
+            this.last = timestamp;
+            this.bytes = 0;
+            this.appended.signalAll();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Return the lowest timestamp which can still be read.
+     *
+     * @return int
+     */
+    public int getFirstTimestamp() {
+        return this.first;
+    }
+
+    /**
+     * Return the highest timestamp of the contiguous range in the log.
+     *
+     * @return int
+     */
+    public int getLastTimestamp() {
+        return this.last;
+    }
+
+    /**
+     * Return the number of operations which can be read.
+     *
+     * @return int
+     */
+    public int size() {
+        return Math.max(this.last - this.first + 1, 0);
+    }
+
+    /**
+     * Return the estimated heap usage of the operations and chunks in bytes.
+     *
+     * @return long
+     */
+    public long memoryUsage() {
+        return this.bytes;
+    }
+
+    /**
+     * Return the operation of the timestamp in the directory.
+     *
+     * @param timestamp
+     * @param directory
+     * @return Operation
+     */
+    private Operation get(int timestamp, Directory directory) {
+        if (timestamp < 1) {
+            return null;
+        }
+
+        Operation[] chunk = chunkOf(timestamp, directory);
+        return (chunk == null) ? null : chunk[(timestamp - 1) & CHUNK_MASK];
+    }
+
+    /**
+     * Return the chunk holding the timestamp in the directory.
+     *
+     * @param timestamp
+     * @param directory
+     * @return Operation[]
+     *      - null if the chunk hasn't been allocated or has been truncated
+     */
+    private Operation[] chunkOf(int timestamp, Directory directory) {
+        int index = ((timestamp - 1) >>> CHUNK_SHIFT) - directory.firstChunk;
+
+        return (index < 0 || index >= directory.chunks.length) ? null : directory.chunks[index];
+    }
+
+    /**
+     * Return the chunk holding the timestamp, grow the directory and allocate the chunk if needed.
+     * Must be called with the lock.
+     *
+     * @param timestamp
+     * @return Operation[]
+     */
+    private Operation[] chunkForWrite(int timestamp) {
+        Directory directory = this.directory;
+        int index = ((timestamp - 1) >>> CHUNK_SHIFT) - directory.firstChunk;
+
+        if (index >= directory.chunks.length) {
+            Operation[][] chunks = new Operation[Math.max(directory.chunks.length * 2, index + 1)][];
+            System.arraycopy(directory.chunks, 0, chunks, 0, directory.chunks.length);
+            directory = new Directory(directory.firstChunk, chunks);
+            this.directory = directory;
+        }
+
+        if (directory.chunks[index] == null) {
+            directory.chunks[index] = new Operation[CHUNK_SIZE];
+            this.bytes += CHUNK_OVERHEAD;
+        }
+
+        return directory.chunks[index];
+    }
+}
@@ -0,0 +1,155 @@
+package EventService.EventConcurrency;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe PurchaseHolds class to keep the tickets reserved by purchases waiting for their confirm.
+ * The tickets of a hold are already taken from the inventory, but nothing is committed or logged for them,
+ * so they are added back whenever the inventory leaves the node, in a snapshot or a full backup.
+ * A record of a data directory keeps them out of its purchased counter until the confirm,
+ * so a restart gives back the tickets of the holds it lost.
+ * A hold is removed exactly once, by the confirm, the release, or the expiry, whichever comes first.
+ */
+class PurchaseHolds {
+    private final ConcurrentHashMap<String, Hold> holds; // uuid -> hold
+
+    /**
+     * Nested Hold class of one reservation.
+     */
+    static class Hold {
+        final int eventId;
+        final int tickets;
+        final long created; // in milliseconds
+
+        /**
+         * Constructor of Hold.
+         *
+         * @param eventId
+         * @param tickets
+         */
+        private Hold(int eventId, int tickets) {
+            this.eventId = eventId;
+            this.tickets = tickets;
+            this.created = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Constructor of PurchaseHolds.
+     */
+    PurchaseHolds() {
+        this.holds = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Add a hold for the uuid if there is none.
+     *
+     * @param uuid
+     * @param eventId
+     * @param tickets
+     * @return boolean
+     *      - false if the uuid is already held
+     */
+    boolean put(String uuid, int eventId, int tickets) {
+        return this.holds.putIfAbsent(uuid, new Hold(eventId, tickets)) == null;
+    }
+
+    /**
+     * Check if the uuid is held.
+     *
+     * @param uuid
+     * @return boolean
+     */
+    boolean contains(String uuid) {
+        return this.holds.containsKey(uuid);
+    }
+
+    /**
+     * Return the hold of the uuid.
+     *
+     * @param uuid
+     * @return Hold
+     *      - null if there is none
+     */
+    Hold get(String uuid) {
+        return this.holds.get(uuid);
+    }
+
+    /**
+     * Replace the hold of the uuid with a claim of no tickets, in one step,
+     * so the uuid stays held while its tickets are taken over for the confirm.
+     *
+     * @param uuid
+     * @param eventId
+     * @return Hold
+     *      - the hold replaced, null if it has been removed already
+     */
+    Hold take(String uuid, int eventId) {
+        Hold[] taken = new Hold[1];
+        this.holds.compute(uuid, (key, hold) -> {
+            taken[0] = hold;
+            return new Hold(eventId, 0);
+        });
+
+        return taken[0];
+    }
+
+    /**
+     * Remove the hold of the uuid.
+     *
+     * @param uuid
+     * @return Hold
+     *      - null if it has been removed already
+     */
+    Hold remove(String uuid) {
+        return this.holds.remove(uuid);
+    }
+
+    /**
+     * Return the uuids held longer than the time to live.
+     *
+     * @param ttl
+     *      - in milliseconds
+     * @return List
+     */
+    List<String> expired(long ttl) {
+        List<String> expired = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<String, Hold> entry : this.holds.entrySet()) {
+            if (now - entry.getValue().created > ttl) {
+                expired.add(entry.getKey());
+            }
+        }
+
+        return expired;
+    }
+
+    /**
+     * Return the held tickets of every event with a hold.
+     * Exact only while no hold is added or removed, under the write lock of EventList.
+     *
+     * @return Map
+     *      - eventId -> tickets
+     */
+    Map<Integer, Integer> heldByEvent() {
+        Map<Integer, Integer> held = new HashMap<>();
+
+        for (Hold hold : this.holds.values()) {
+            held.merge(hold.eventId, hold.tickets, Integer::sum);
+        }
+
+        return held;
+    }
+
+    /**
+     * Drop every hold without giving the tickets back, when the events are replaced by a restore.
+     */
+    void clear() {
+        this.holds.clear();
+    }
+}
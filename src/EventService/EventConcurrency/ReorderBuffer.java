@@ -0,0 +1,267 @@
+package EventService.EventConcurrency;
+
+import Concurrency.LamportClock;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe ReorderBuffer class for secondaries to apply the replications of the primary in the order of their timestamps.
+ * A replication arriving before its predecessor waits in the buffer under its timestamp,
+ * and is signalled the moment the Lamport Timestamp reaches its predecessor, instead of polling the clock.
+ * A replication may also leave a task to be run instead of waiting, so it holds no thread meanwhile.
+ * The buffer only takes the replications within capacity timestamps after the last applied one,
+ * so it never holds more than capacity of them and the next one to apply always has a place.
+ * A waiting thread beyond the window waits for it to move,
+ * and a batch of tasks reaching beyond it is turned away before any of its tasks is left.
+ */
+public class ReorderBuffer {
+    private static final long RECHECK = 1000; // milliseconds, only a safety net since waiters are signalled
+
+    private final LamportClock clock;
+    private final int capacity;
+    private final ReentrantLock lock;
+    private final Condition windowMoved;
+    private final TreeMap<Long, Condition> waiting; // timestamp -> its waiters
+    private final TreeMap<Long, List<Deferred>> deferred; // timestamp -> its tasks
+    private final AtomicLong inOrder;
+    private volatile int pending;
+    private volatile int outside; // threads waiting beyond the window
+
+    // metrics, guarded by the lock
+    private int maxPending;
+    private long reordered;
+    private long overflowed;
+    private long waitNanos;
+
+    /**
+     * Constructor of ReorderBuffer, listen to the clock to wake the waiters.
+     *
+     * @param clock
+     * @param capacity
+     */
+    public ReorderBuffer(LamportClock clock, int capacity) {
+        this.clock = clock;
+        this.capacity = capacity;
+        this.lock = new ReentrantLock();
+        this.windowMoved = this.lock.newCondition();
+        this.waiting = new TreeMap<>();
+        this.deferred = new TreeMap<>();
+        this.inOrder = new AtomicLong(0);
+        this.pending = 0;
+        this.outside = 0;
+        this.maxPending = 0;
+        this.reordered = 0;
+        this.overflowed = 0;
+        this.waitNanos = 0;
+        clock.setListener(this::advance);
+    }
+
+    /**
+     * Wait until every timestamp before the one of the replication has been applied.
+     *
+     * @param timestamp
+     * @throws InterruptedException
+     */
+    public void await(long timestamp) throws InterruptedException {
+        if (timestamp - 1 <= this.clock.get()) {
+            this.inOrder.incrementAndGet();
+            return;
+        }
+
+        long start = System.nanoTime();
+        System.out.println("[Reorder] Buffering request #" + timestamp);
+
+        this.lock.lock();
+        try {
+            if (timestamp - this.capacity > this.clock.get()) {
+                this.overflowed++;
+                this.outside++;
+                try {
+                    while (timestamp - this.capacity > this.clock.get()) {
+                        this.windowMoved.await(RECHECK, TimeUnit.MILLISECONDS);
+                    }
+                }
+                finally {
+                    this.outside--;
+                }
+            }
+
+            // counted before the clock is checked, so a clock moving meanwhile always sees it
+            this.pending++;
+            try {
+                if (timestamp - 1 > this.clock.get()) {
+                    this.maxPending = Math.max(this.maxPending, this.pending);
+                }
+                while (timestamp - 1 > this.clock.get()) {
+                    this.waiting.computeIfAbsent(timestamp, k -> this.lock.newCondition())
+                            .await(RECHECK, TimeUnit.MILLISECONDS);
+                }
+            }
+            finally {
+                this.pending--;
+            }
+
+            this.reordered++;
+            this.waitNanos += System.nanoTime() - start;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Check if the replications up to the timestamp fit in the window of the buffer, before any of them is deferred.
+     * The window only moves forward, so every timestamp up to an admitted one stays within it.
+     *
+     * @param timestamp
+     *      - last timestamp of the batch
+     * @return boolean
+     *      - false if the timestamp is beyond the window, nothing of the batch should be deferred then
+     */
+    public boolean admits(int timestamp) {
+        if (timestamp - this.capacity <= this.clock.get()) {
+            return true;
+        }
+
+        this.lock.lock();
+        try {
+            this.overflowed++;
+        }
+        finally {
+            this.lock.unlock();
+        }
+
+        return false;
+    }
+
+    /**
+     * Leave the task to be run once every timestamp before the one of the replication has been applied.
+     * The task is run by the thread moving the clock, so it should only hand the work over.
+     * The batch of the task must have been admitted first.
+     *
+     * @param timestamp
+     * @param task
+     * @return boolean
+     *      - false if the replication is in order already, the caller applies it at once
+     */
+    public boolean defer(long timestamp, Runnable task) {
+        if (timestamp - 1 <= this.clock.get()) {
+            this.inOrder.incrementAndGet();
+            return false;
+        }
+
+        this.lock.lock();
+        try {
+            // counted before the clock is checked, so a clock moving meanwhile always sees it
+            this.pending++;
+            if (timestamp - 1 <= this.clock.get()) {
+                this.pending--;
+                this.inOrder.incrementAndGet();
+                return false;
+            }
+
+            this.maxPending = Math.max(this.maxPending, this.pending);
+            this.deferred.computeIfAbsent(timestamp, k -> new ArrayList<>()).add(new Deferred(task));
+            System.out.println("[Reorder] Deferring request #" + timestamp);
+            return true;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Signal the waiters and run the tasks whose predecessors have been applied, whenever the clock moves forward.
+     */
+    private void advance() {
+        if (this.pending == 0 && this.outside == 0) {
+            return;
+        }
+
+        List<Deferred> tasks = new ArrayList<>();
+        this.lock.lock();
+        try {
+            long current = this.clock.get();
+            SortedMap<Long, Condition> ready = this.waiting.headMap(current + 1, true);
+            for (Condition condition : ready.values()) {
+                condition.signalAll();
+            }
+            ready.clear();
+
+            SortedMap<Long, List<Deferred>> readyTasks = this.deferred.headMap(current + 1, true);
+            for (List<Deferred> list : readyTasks.values()) {
+                tasks.addAll(list);
+            }
+            readyTasks.clear();
+
+            long now = System.nanoTime();
+            for (Deferred task : tasks) {
+                this.pending--;
+                this.reordered++;
+                this.waitNanos += now - task.created;
+            }
+
+            // the window has moved for the replications waiting beyond it
+            this.windowMoved.signalAll();
+        }
+        finally {
+            this.lock.unlock();
+        }
+
+        for (Deferred task : tasks) {
+            task.task.run();
+        }
+    }
+
+    /**
+     * Return the metrics of the buffer.
+     *
+     * @return JsonObject
+     */
+    public JsonObject toJsonObject() {
+        JsonObject metrics = new JsonObject();
+
+        this.lock.lock();
+        try {
+            metrics.addProperty("capacity", this.capacity);
+            metrics.addProperty("pending", this.pending);
+            metrics.addProperty("maxpending", this.maxPending);
+            metrics.addProperty("inorder", this.inOrder.get());
+            metrics.addProperty("reordered", this.reordered);
+            metrics.addProperty("overflowed", this.overflowed);
+            metrics.addProperty("avgwaitms", (this.reordered == 0) ? 0 :
+                    TimeUnit.NANOSECONDS.toMicros(this.waitNanos / this.reordered) / 1000.0);
+        }
+        finally {
+            this.lock.unlock();
+        }
+
+        return metrics;
+    }
+
+    /**
+     * Nested Deferred class of a task left in the buffer.
+     */
+    private static class Deferred {
+        private final Runnable task;
+        private final long created; // in nanoseconds
+
+        /**
+         * Constructor of Deferred.
+         *
+         * @param task
+         */
+        private Deferred(Runnable task) {
+            this.task = task;
+            this.created = System.nanoTime();
+        }
+    }
+}
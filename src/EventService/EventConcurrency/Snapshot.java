@@ -0,0 +1,100 @@
+package EventService.EventConcurrency;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Snapshot class to ship an open snapshot file as the body of a full backup.
+ * The file is sent with FileChannel.transferTo, so a socket target gets it straight from the page cache
+ * without passing through the heap, and only the operations after the snapshot are encoded in memory.
+ */
+public class Snapshot implements Closeable {
+    private final FileChannel channel;
+    private final int timestamp;
+    private byte[] tail;
+
+    /**
+     * Constructor of Snapshot.
+     *
+     * @param channel
+     * @param timestamp
+     */
+    Snapshot(FileChannel channel, int timestamp) {
+        this.channel = channel;
+        this.timestamp = timestamp;
+        this.tail = SnapshotFile.TAIL;
+    }
+
+    /**
+     * Replace the empty operations array at the end of the file with the operations after the snapshot.
+     *
+     * @param operations
+     */
+    void setOperations(List<Operation> operations) {
+        StringBuilder sb = new StringBuilder("[");
+
+        for (int i = 0; i < operations.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(operations.get(i).toJsonObject());
+        }
+
+        this.tail = sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Return the Lamport Timestamp of the snapshot.
+     *
+     * @return int
+     */
+    public int getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Return the number of bytes to ship.
+     *
+     * @return long
+     * @throws IOException
+     */
+    public long length() throws IOException {
+        return this.channel.size() - SnapshotFile.TAIL.length + this.tail.length;
+    }
+
+    /**
+     * Send the file without its empty operations array, then the operations.
+     *
+     * @param target
+     * @throws IOException
+     */
+    public void transferTo(WritableByteChannel target) throws IOException {
+        long position = 0;
+        long count = this.channel.size() - SnapshotFile.TAIL.length;
+
+        while (position < count) {
+            position += this.channel.transferTo(position, count - position, target);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(this.tail);
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    /**
+     * Close the file.
+     */
+    @Override
+    public void close() {
+        try {
+            this.channel.close();
+        }
+        catch (IOException ignored) {}
+    }
+}
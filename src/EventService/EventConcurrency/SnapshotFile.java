@@ -0,0 +1,232 @@
+package EventService.EventConcurrency;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SnapshotFile class to keep a local snapshot of EventList in the format of the full backup.
+ * The operations array is always the last field and written empty, so the file ends with "[]}"
+ * and a shipment can replace that tail with the operations committed after the snapshot.
+ * A new snapshot is written into a temporary file and replaces the old one atomically,
+ * a shipment already reading the old file keeps reading it.
+ * Writers are serialized, and a cut older than the current snapshot is dropped.
+ */
+class SnapshotFile {
+    static final byte[] TAIL = "[]}".getBytes(StandardCharsets.US_ASCII);
+
+    private final File file;
+    private final ReentrantLock writer;
+    private long written; // number of the cut in the current snapshot, guarded by writer
+    private int timestamp; // guarded by this
+    private long walSequence; // guarded by this
+
+    /**
+     * Constructor of SnapshotFile.
+     *
+     * @param file
+     */
+    SnapshotFile(File file) {
+        this.file = file;
+        this.writer = new ReentrantLock();
+        this.written = 0;
+        this.timestamp = -1;
+        this.walSequence = 0;
+    }
+
+    /**
+     * Read the snapshot left in the file.
+     *
+     * @return JsonObject
+     *      - null if there is no snapshot
+     * @throws IOException
+     */
+    synchronized JsonObject load() throws IOException {
+        if (!this.file.exists()) {
+            return null;
+        }
+
+        JsonObject data;
+        try (Reader reader = new InputStreamReader(new FileInputStream(this.file), StandardCharsets.UTF_8)) {
+            data = (JsonObject) new JsonParser().parse(reader);
+        }
+
+        this.timestamp = data.get("timestamp").getAsInt();
+        this.walSequence = data.get("walsequence").getAsLong();
+        return data;
+    }
+
+    /**
+     * Write a snapshot from a cut taken under the write lock of EventList.
+     * The events only change in the inventory, so the rest of them is read from the store after the cut.
+     *
+     * @param cut
+     *      - number of the cut, in the order they were taken
+     * @param events
+     * @param inventories
+     *      - inventory of every event slot at the cut
+     * @param committed
+     *      - copy of the committed log at the cut
+     * @param outbox
+     *      - credits not delivered at the cut
+     * @param timestamp
+     * @param watermark
+     * @param walSequence
+     *      - last entry of the write-ahead log reflected by the cut
+     * @return boolean
+     *      - false if a newer cut has been written
+     * @throws IOException
+     */
+    boolean write(long cut, EventStore events, long[] inventories, CommittedLog committed, List<Operation> outbox,
+                  int timestamp, int watermark, long walSequence) throws IOException {
+        this.writer.lock();
+        try {
+            if (cut < this.written) {
+                return false;
+            }
+
+            writeFile(events, inventories, committed, outbox, timestamp, watermark, walSequence);
+            this.written = cut;
+            return true;
+        }
+        finally {
+            this.writer.unlock();
+        }
+    }
+
+    /**
+     * Write the snapshot into a temporary file and move it over the current one.
+     *
+     * @param events
+     * @param inventories
+     * @param committed
+     * @param outbox
+     * @param timestamp
+     * @param watermark
+     * @param walSequence
+     * @throws IOException
+     */
+    private void writeFile(EventStore events, long[] inventories, CommittedLog committed, List<Operation> outbox,
+                           int timestamp, int watermark, long walSequence) throws IOException {
+        File temp = new File(this.file.getPath() + ".tmp");
+
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(temp), 1 << 16)) {
+            JsonObject head = new JsonObject();
+            head.addProperty("timestamp", timestamp);
+            head.addProperty("watermark", watermark);
+            head.addProperty("walsequence", walSequence);
+            String headString = head.toString();
+            os.write(headString.substring(0, headString.length() - 1).getBytes(StandardCharsets.UTF_8));
+
+            os.write(",\"eventlist\":[".getBytes(StandardCharsets.US_ASCII));
+            boolean first = true;
+            for (int i = 0; i < inventories.length; i++) {
+                Event event = events.get(i);
+                if (event == null) {
+                    continue;
+                }
+
+                if (!first) {
+                    os.write(',');
+                }
+                os.write(event.toJsonObject(inventories[i]).toString().getBytes(StandardCharsets.UTF_8));
+                first = false;
+            }
+
+            os.write("],\"committedlog\":[".getBytes(StandardCharsets.US_ASCII));
+            boolean[] firstLog = {true};
+            IOException[] failure = new IOException[1];
+            committed.forEach((msb, lsb, logTimestamp, eventId) -> {
+                JsonObject obj = new JsonObject();
+                obj.addProperty("uuid", CommittedLog.toUuid(msb, lsb));
+                obj.addProperty("timestamp", logTimestamp);
+                obj.addProperty("eventId", eventId);
+
+                try {
+                    if (!firstLog[0]) {
+                        os.write(',');
+                    }
+                    os.write(obj.toString().getBytes(StandardCharsets.UTF_8));
+                    firstLog[0] = false;
+                }
+                catch (IOException ioe) {
+                    failure[0] = ioe;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+
+            os.write("],\"outbox\":[".getBytes(StandardCharsets.US_ASCII));
+            for (int i = 0; i < outbox.size(); i++) {
+                if (i > 0) {
+                    os.write(',');
+                }
+                os.write(outbox.get(i).toJsonObject().toString().getBytes(StandardCharsets.UTF_8));
+            }
+
+            os.write("],\"operations\":".getBytes(StandardCharsets.US_ASCII));
+            os.write(TAIL);
+        }
+
+        try (FileChannel channel = new RandomAccessFile(temp, "rw").getChannel()) {
+            channel.force(true);
+        }
+
+        synchronized (this) {
+            Files.move(temp.toPath(), this.file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.timestamp = timestamp;
+            this.walSequence = walSequence;
+        }
+    }
+
+    /**
+     * Open the current snapshot for reading, together with its timestamp.
+     *
+     * @return Snapshot
+     *      - null if there is no snapshot yet
+     * @throws IOException
+     */
+    synchronized Snapshot open() throws IOException {
+        if (this.timestamp < 0 || !this.file.exists()) {
+            return null;
+        }
+
+        return new Snapshot(new RandomAccessFile(this.file, "r").getChannel(), this.timestamp);
+    }
+
+    /**
+     * Return the Lamport Timestamp of the current snapshot.
+     *
+     * @return int
+     *      - -1 if there is no snapshot yet
+     */
+    synchronized int getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Return the last entry of the write-ahead log reflected by the current snapshot.
+     *
+     * @return long
+     */
+    synchronized long getWalSequence() {
+        return this.walSequence;
+    }
+}
@@ -0,0 +1,370 @@
+package EventService.EventConcurrency;
+
+import EventService.EventServiceDriver;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe WriteAheadLog of the creates, purchases, and delivered credits applied to EventList, one JSON object per line.
+ * Writers only append into a buffer, a single flusher thread writes the buffer and forces it to the disk,
+ * so many operations share one fsync. The flush starts when the buffer reaches the flush size or the flush interval passes.
+ * A request waits for its own entries to be durable before it responds.
+ * Every entry has a sequence number, the first line of the file tells the sequence the file starts after,
+ * so the entries covered by a snapshot can be truncated from the front.
+ * An entry is appended after its mutation, so a failed flush leaves the memory ahead of the disk.
+ * The service stops then, instead of answering for writes which are applied but not durable,
+ * and recovers from what is on the disk when it restarts.
+ */
+public class WriteAheadLog implements Runnable {
+    private static final String START = "start";
+    private static final ThreadLocal<long[]> LAST_APPENDED = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final File file;
+    private final int flushInterval;
+    private final int flushSize;
+    private final ReentrantLock lock; // guards the buffer and the sequences
+    private final Condition full;
+    private final Condition flushed;
+    private final ReentrantLock io; // guards the channel
+    private FileChannel channel;
+    private ByteArrayOutputStream buffer;
+    private long start; // sequence the file starts after
+    private long appended; // sequence of the last appended entry
+    private volatile long durable; // sequence of the last entry forced to the disk
+
+    /**
+     * Replayer to receive the entries of the log in order.
+     */
+    interface Replayer {
+        void apply(Operation op);
+    }
+
+    /**
+     * Constructor of WriteAheadLog, open or create the log file.
+     *
+     * @param file
+     * @param flushInterval
+     *      - in milliseconds
+     * @param flushSize
+     *      - in bytes
+     * @throws IOException
+     */
+    WriteAheadLog(File file, int flushInterval, int flushSize) throws IOException {
+        this.file = file;
+        this.flushInterval = flushInterval;
+        this.flushSize = flushSize;
+        this.lock = new ReentrantLock();
+        this.full = this.lock.newCondition();
+        this.flushed = this.lock.newCondition();
+        this.io = new ReentrantLock();
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.buffer = new ByteArrayOutputStream();
+        this.start = 0;
+        this.appended = 0;
+        this.durable = 0;
+    }
+
+    /**
+     * Read the log from the beginning and pass every complete entry after the sequence to the replayer.
+     * A torn entry at the end, left by a crash in the middle of a write, is cut off.
+     * Must be called before the log is shared.
+     *
+     * @param after
+     *      - sequence already covered by the snapshot
+     * @param replayer
+     * @throws IOException
+     */
+    void replay(long after, Replayer replayer) throws IOException {
+        JsonParser parser = new JsonParser();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        long valid = 0;
+        long sequence = 0;
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(this.file))) {
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+
+                JsonObject obj;
+                try {
+                    obj = (JsonObject) parser.parse(new String(line.toByteArray(), StandardCharsets.UTF_8));
+                }
+                catch (Exception e) {
+                    break;
+                }
+
+                if (obj.get("type").getAsString().equals(START)) {
+                    sequence = obj.get("sequence").getAsLong();
+                    this.start = sequence;
+                }
+                else if (++sequence > after) {
+                    replayer.apply(Operation.fromJsonObject(obj));
+                }
+                valid += line.size() + 1;
+                line.reset();
+            }
+        }
+
+        if (valid == 0) {
+            // a new log, or one torn before its header was complete
+            this.channel.truncate(0);
+            this.channel.position(0);
+            write(this.channel, header(0));
+            this.channel.force(true);
+            sequence = 0;
+        }
+        else {
+            if (valid < this.channel.size()) {
+                System.out.println("[WAL] Cut off a torn entry at byte " + valid);
+                this.channel.truncate(valid);
+            }
+            this.channel.position(valid);
+        }
+
+        this.appended = sequence;
+        this.durable = sequence;
+    }
+
+    /**
+     * Append the Operation into the buffer, remember its sequence for the calling thread.
+     *
+     * @param op
+     */
+    void append(Operation op) {
+        byte[] entry = (op.toJsonObject().toString() + "\n").getBytes(StandardCharsets.UTF_8);
+        long sequence;
+
+        this.lock.lock();
+        try {
+            this.buffer.write(entry, 0, entry.length);
+            sequence = ++this.appended;
+
+            if (this.buffer.size() >= this.flushSize) {
+                this.full.signal();
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+
+        LAST_APPENDED.get()[0] = sequence;
+    }
+
+    /**
+     * Return the sequence of the last appended entry.
+     * Called under the write lock of EventList, it is the last entry reflected by a snapshot.
+     *
+     * @return long
+     */
+    long getSequence() {
+        this.lock.lock();
+        try {
+            return this.appended;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Drop the entries at or below the sequence, once a durable snapshot covers them.
+     * The rest of the file is copied behind a new header and replaces the file atomically.
+     *
+     * @param sequence
+     * @throws IOException
+     */
+    void truncate(long sequence) throws IOException {
+        // every entry to drop must be in the file, the batches written later only hold newer ones
+        awaitSequence(sequence);
+
+        File temp = new File(this.file.getPath() + ".tmp");
+
+        this.io.lock();
+        try {
+            if (sequence <= this.start) {
+                return;
+            }
+
+            long skip = sequence - this.start + 1; // the header and the covered entries
+            long position = 0;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(this.file))) {
+                int b;
+                while (skip > 0 && (b = in.read()) != -1) {
+                    position++;
+                    if (b == '\n') {
+                        skip--;
+                    }
+                }
+            }
+
+            try (FileChannel channel = new RandomAccessFile(temp, "rw").getChannel()) {
+                channel.truncate(0);
+                write(channel, header(sequence));
+                this.channel.transferTo(position, this.channel.size() - position, channel);
+                channel.force(true);
+            }
+
+            this.channel.close();
+            Files.move(temp.toPath(), this.file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.channel = new RandomAccessFile(this.file, "rw").getChannel();
+            this.channel.position(this.channel.size());
+            this.start = sequence;
+        }
+        finally {
+            this.io.unlock();
+        }
+    }
+
+    /**
+     * Wait until every entry appended by the calling thread is durable.
+     */
+    void awaitDurable() {
+        awaitSequence(LAST_APPENDED.get()[0]);
+    }
+
+    /**
+     * Wait until every entry appended so far, by any thread, is durable.
+     */
+    void awaitAllDurable() {
+        awaitSequence(getSequence());
+    }
+
+    /**
+     * Wait until every entry up to the sequence is durable.
+     * If the log fails meanwhile, the service stops before the wait is over.
+     *
+     * @param sequence
+     */
+    private void awaitSequence(long sequence) {
+        if (this.durable >= sequence) {
+            return;
+        }
+
+        this.lock.lock();
+        try {
+            while (this.durable < sequence) {
+                this.flushed.awaitUninterruptibly();
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * run method to flush the buffer in batches until the service stops.
+     */
+    @Override
+    public void run() {
+        while (EventServiceDriver.alive) {
+            byte[] batch;
+            long sequence;
+
+            this.lock.lock();
+            try {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(this.flushInterval);
+                while (this.buffer.size() < this.flushSize && nanos > 0) {
+                    nanos = this.full.awaitNanos(nanos);
+                }
+
+                if (this.buffer.size() == 0) {
+                    continue;
+                }
+
+                batch = this.buffer.toByteArray();
+                this.buffer.reset();
+                sequence = this.appended;
+            }
+            catch (InterruptedException ie) {
+                continue;
+            }
+            finally {
+                this.lock.unlock();
+            }
+
+            flush(batch, sequence);
+        }
+    }
+
+    /**
+     * Write the batch and force it to the disk, then release the writers waiting for it.
+     *
+     * @param batch
+     * @param sequence
+     */
+    private void flush(byte[] batch, long sequence) {
+        this.io.lock();
+        try {
+            write(this.channel, batch);
+            this.channel.force(false);
+        }
+        catch (IOException ioe) {
+            // nothing may be answered for the writes waiting, neither success nor a failure of applied state
+            System.out.println("[WAL] Failed to flush the write-ahead log, stopping the service: " + ioe.getMessage());
+            EventServiceDriver.alive = false;
+            System.exit(-1);
+        }
+        finally {
+            this.io.unlock();
+        }
+
+        this.lock.lock();
+        try {
+            if (sequence > this.durable) {
+                this.durable = sequence;
+            }
+            this.flushed.signalAll();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Return the header line of a file starting after the sequence.
+     *
+     * @param sequence
+     * @return byte[]
+     */
+    private static byte[] header(long sequence) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("type", START);
+        obj.addProperty("sequence", sequence);
+
+        return (obj.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write all the bytes at the position of the channel.
+     *
+     * @param channel
+     * @param bytes
+     * @throws IOException
+     */
+    private static void write(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -1,16 +1,25 @@
 package EventService;
 
-import Concurrency.ConcurrentInteger;
+import Concurrency.LamportClock;
 import Concurrency.ServiceList;
+import EventService.MultithreadingProcess.CreditDispatcher;
 import EventService.MultithreadingProcess.GreetWithFrontEnd;
+import EventService.MultithreadingProcess.HoldExpiry;
+import EventService.MultithreadingProcess.LocalSnapshot;
+import EventService.MultithreadingProcess.LogCompaction;
+import EventService.MultithreadingProcess.ReplicationBatcher;
+import EventService.MultithreadingProcess.ReplicationListener;
+import Usage.AckMode;
 import Usage.ServiceName;
 import EventService.EventConcurrency.EventList;
+import EventService.EventConcurrency.ReorderBuffer;
 import EventService.Servlet.*;
 import EventService.MultithreadingProcess.Gossip;
 import Usage.State;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletHandler;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.util.*;
 
@@ -27,7 +36,8 @@ public class EventServiceDriver {
     public static ServiceList<String> eventServiceList;
     public static volatile String primaryUserService;
     public static volatile State state;
-    public static ConcurrentInteger lamportTimestamps;
+    public static LamportClock lamportTimestamps;
+    public static ReorderBuffer reorderBuffer;
 
     /**
      * main method to start the server.
@@ -40,6 +50,7 @@ public class EventServiceDriver {
 
         try {
             EventServiceDriver.initProperties(args);
+            EventServiceDriver.initEventList();
             EventServiceDriver.startServer();
         }
         catch (Exception ex) {
@@ -53,11 +64,36 @@ public class EventServiceDriver {
      * Initialize the data structures.
      */
     private static void initDataStructures() {
-        EventServiceDriver.eventList = new EventList();
         EventServiceDriver.properties = new HashMap<>();
         EventServiceDriver.frontendServiceList = new ServiceList<>(ServiceName.FRONT_END.toString());
         EventServiceDriver.eventServiceList = new ServiceList<>(ServiceName.EVENT.toString());
-        EventServiceDriver.lamportTimestamps = new ConcurrentInteger();
+        EventServiceDriver.lamportTimestamps = new LamportClock();
+    }
+
+    /**
+     * Initialize the EventList with the store chosen by the arguments.
+     * With a data directory, the events, committed log, and Lamport Timestamp are recovered from it,
+     * so a restarted node doesn't need a full backup from the primary.
+     * Without one, the local snapshot is restored, and the write-ahead log is replayed on top of either.
+     *
+     * @throws IOException
+     */
+    private static void initEventList() throws IOException {
+        if (EventServiceDriver.properties.get("dataDir") != null) {
+            EventServiceDriver.eventList = new EventList(EventServiceDriver.properties.get("dataDir"));
+        }
+        else {
+            EventServiceDriver.eventList = new EventList(EventServiceDriver.properties.get("eventStore").equals("offheap"));
+        }
+
+        if (EventServiceDriver.properties.get("snapshotFile") != null) {
+            EventServiceDriver.eventList.openSnapshotFile(EventServiceDriver.properties.get("snapshotFile"));
+        }
+        if (EventServiceDriver.properties.get("walFile") != null) {
+            EventServiceDriver.eventList.openWriteAheadLog(EventServiceDriver.properties.get("walFile"),
+                    Integer.parseInt(EventServiceDriver.properties.get("walFlushInterval")),
+                    Integer.parseInt(EventServiceDriver.properties.get("walFlushSize")) * 1024);
+        }
     }
 
     /**
@@ -73,6 +109,22 @@ public class EventServiceDriver {
 
         String currentHost =  InetAddress.getLocalHost().getHostAddress();
         EventServiceDriver.properties.put("host", currentHost);
+        EventServiceDriver.properties.put("dedupWindow", "60");
+        EventServiceDriver.properties.put("compactInterval", "30");
+        EventServiceDriver.properties.put("operationLogLimit", "64");
+        EventServiceDriver.properties.put("eventStore", "heap");
+        EventServiceDriver.properties.put("walFlushInterval", "5");
+        EventServiceDriver.properties.put("walFlushSize", "256");
+        EventServiceDriver.properties.put("snapshotInterval", "60");
+        EventServiceDriver.properties.put("holdTtl", "30");
+        EventServiceDriver.properties.put("creditBatch", "256");
+        EventServiceDriver.properties.put("reorderCapacity", "1024");
+        EventServiceDriver.properties.put("replicationWindow", "4");
+        EventServiceDriver.properties.put("replicationBatchSize", "256");
+        EventServiceDriver.properties.put("replicationBatchWait", "1");
+        EventServiceDriver.properties.put("replicationAck", AckMode.ALL.toString());
+        EventServiceDriver.properties.put("replicationTransport", "http");
+        EventServiceDriver.properties.put("replicationPortOffset", "1000");
 
         for (int i = 0; i < args.length - 1; i++) {
             switch (args[i]) {
@@ -98,12 +150,78 @@ public class EventServiceDriver {
                     EventServiceDriver.primaryUserService = args[i + 1];
                     primaryUser = true;
                     break;
+                case "-dedupWindow":
+                    EventServiceDriver.properties.put("dedupWindow", args[i + 1]);
+                    break;
+                case "-compactInterval":
+                    EventServiceDriver.properties.put("compactInterval", args[i + 1]);
+                    break;
+                case "-archiveLog":
+                    EventServiceDriver.properties.put("archiveLog", args[i + 1]);
+                    break;
+                case "-operationLogLimit":
+                    EventServiceDriver.properties.put("operationLogLimit", args[i + 1]);
+                    break;
+                case "-eventStore":
+                    EventServiceDriver.properties.put("eventStore", args[i + 1]);
+                    break;
+                case "-dataDir":
+                    EventServiceDriver.properties.put("dataDir", args[i + 1]);
+                    break;
+                case "-walFile":
+                    EventServiceDriver.properties.put("walFile", args[i + 1]);
+                    break;
+                case "-walFlushInterval":
+                    EventServiceDriver.properties.put("walFlushInterval", args[i + 1]);
+                    break;
+                case "-walFlushSize":
+                    EventServiceDriver.properties.put("walFlushSize", args[i + 1]);
+                    break;
+                case "-snapshotFile":
+                    EventServiceDriver.properties.put("snapshotFile", args[i + 1]);
+                    break;
+                case "-snapshotInterval":
+                    EventServiceDriver.properties.put("snapshotInterval", args[i + 1]);
+                    break;
+                case "-holdTtl":
+                    EventServiceDriver.properties.put("holdTtl", args[i + 1]);
+                    break;
+                case "-creditBatch":
+                    EventServiceDriver.properties.put("creditBatch", args[i + 1]);
+                    break;
+                case "-reorderCapacity":
+                    EventServiceDriver.properties.put("reorderCapacity", args[i + 1]);
+                    break;
+                case "-replicationWindow":
+                    EventServiceDriver.properties.put("replicationWindow", args[i + 1]);
+                    break;
+                case "-replicationBatchSize":
+                    EventServiceDriver.properties.put("replicationBatchSize", args[i + 1]);
+                    break;
+                case "-replicationBatchWait":
+                    EventServiceDriver.properties.put("replicationBatchWait", args[i + 1]);
+                    break;
+                case "-replicationAck":
+                    EventServiceDriver.properties.put("replicationAck", AckMode.of(args[i + 1]).toString());
+                    break;
+                case "-replicationTransport":
+                    if (!args[i + 1].equals("http") && !args[i + 1].equals("binary")) {
+                        throw new Exception("Unknown replication transport: " + args[i + 1]);
+                    }
+                    EventServiceDriver.properties.put("replicationTransport", args[i + 1]);
+                    break;
+                case "-replicationPortOffset":
+                    EventServiceDriver.properties.put("replicationPortOffset", args[i + 1]);
+                    break;
             }
         }
 
         if (!port || !primaryEvent || !primaryUser) {
             throw new Exception("Lack of parameter: port, primaryEvent, or primaryUser");
         }
+
+        EventServiceDriver.reorderBuffer = new ReorderBuffer(EventServiceDriver.lamportTimestamps,
+                Integer.parseInt(EventServiceDriver.properties.get("reorderCapacity")));
     }
 
     /**
@@ -116,24 +234,58 @@ public class EventServiceDriver {
         Server server = new Server(port);
         ServletHandler servHandler = new ServletHandler();
 
-        servHandler.addServletWithMapping(CreateServlet.class, "/create");
+        servHandler.addServletWithMapping(CreateServlet.class, "/create").setAsyncSupported(true);
         servHandler.addServletWithMapping(ListServlet.class, "/list");
+        servHandler.addServletWithMapping(QueryServlet.class, "/query");
         servHandler.addServletWithMapping(EventServlet.class, "/*");
-        servHandler.addServletWithMapping(PurchaseServlet.class, "/purchase/*");
+        servHandler.addServletWithMapping(PurchaseServlet.class, "/purchase/*").setAsyncSupported(true);
         servHandler.addServletWithMapping(GreetServlet.class, "/greet/*");
         servHandler.addServletWithMapping(ElectionServlet.class, "/election");
         servHandler.addServletWithMapping(BackupServlet.class, "/backup");
+        servHandler.addServletWithMapping(StatusServlet.class, "/status");
+        servHandler.addServletWithMapping(ReplicateServlet.class, "/replicate").setAsyncSupported(true);
         server.setHandler(servHandler);
 
         Thread gossipThread = new Thread(new Gossip());
         Thread greetFrontEnd = new Thread(new GreetWithFrontEnd());
+        Thread compaction = new Thread(new LogCompaction(
+                Integer.parseInt(EventServiceDriver.properties.get("dedupWindow")),
+                Integer.parseInt(EventServiceDriver.properties.get("compactInterval")),
+                EventServiceDriver.properties.get("archiveLog"),
+                Long.parseLong(EventServiceDriver.properties.get("operationLogLimit")) * 1024 * 1024));
+        Thread holdExpiry = new Thread(new HoldExpiry(
+                Integer.parseInt(EventServiceDriver.properties.get("holdTtl"))));
+        Thread creditDispatcher = new Thread(new CreditDispatcher(
+                Integer.parseInt(EventServiceDriver.properties.get("creditBatch"))));
+        Thread replicationBatcher = new Thread(new ReplicationBatcher(
+                Integer.parseInt(EventServiceDriver.properties.get("replicationBatchSize")),
+                Long.parseLong(EventServiceDriver.properties.get("replicationBatchWait"))));
 
         System.out.println("[System] Starting event service on " + EventServiceDriver.properties.get("host") +
                 ":" + EventServiceDriver.properties.get("port"));
 
+        if (EventServiceDriver.properties.get("replicationTransport").equals("binary")) {
+            // every event service listens, since any of them may be a secondary after an election,
+            // and it listens before the primary can learn about it
+            Thread replicationListener = new Thread(new ReplicationListener(port +
+                    Integer.parseInt(EventServiceDriver.properties.get("replicationPortOffset")),
+                    Runtime.getRuntime().availableProcessors()));
+            replicationListener.start();
+        }
+
         server.start();
         gossipThread.start();
         greetFrontEnd.start();
+        compaction.start();
+        holdExpiry.start();
+        creditDispatcher.start();
+        replicationBatcher.start();
+
+        if (EventServiceDriver.eventList.hasSnapshotFile()) {
+            Thread snapshot = new Thread(new LocalSnapshot(
+                    Integer.parseInt(EventServiceDriver.properties.get("snapshotInterval"))));
+            snapshot.start();
+        }
         server.join();
     }
 }
@@ -0,0 +1,161 @@
+package EventService.MultithreadingProcess;
+
+import EventService.EventConcurrency.Operation;
+import EventService.EventServiceDriver;
+import EventService.Servlet.BaseServlet;
+import Usage.State;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * CreditDispatcher class for primary to deliver the credit outbox to the User Service in the background.
+ * The oldest pending credits are sent in one request to /credits, each tagged with the uuid of its purchase,
+ * so a batch resent after a failure or by a new primary is only added once.
+ * A failed batch is retried with exponential backoff, purchases never wait for the User Service.
+ * A credit the User Service refuses is refunded, and the refund is replicated like a purchase.
+ */
+public class CreditDispatcher extends BaseServlet implements Runnable {
+    private static final long MIN_BACKOFF = 100; // milliseconds
+    private static final long MAX_BACKOFF = 10000; // milliseconds
+    private static final long IDLE_WAIT = 1000; // milliseconds to wait for a credit before checking the state again
+
+    private final int batchSize;
+
+    /**
+     * Constructor of CreditDispatcher.
+     *
+     * @param batchSize
+     *      - credits sent in one request
+     */
+    public CreditDispatcher(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * run method to start the operation.
+     */
+    @Override
+    public void run() {
+        long backoff = MIN_BACKOFF;
+
+        while (EventServiceDriver.alive) {
+            try {
+                if (EventServiceDriver.state != State.PRIMARY) {
+                    Thread.sleep(IDLE_WAIT);
+                    continue;
+                }
+
+                List<Operation> credits = EventServiceDriver.eventList.pollCredits(this.batchSize, IDLE_WAIT);
+                if (credits.isEmpty()) {
+                    continue;
+                }
+
+                if (deliver(credits)) {
+                    backoff = MIN_BACKOFF;
+                }
+                else {
+                    Thread.sleep(backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF);
+                }
+            }
+            catch (InterruptedException ie) {
+                ie.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Send the credits to the User Service and remove them from the outbox once it responds.
+     * A credit refused by the User Service, for an unknown user, won't succeed on a resend,
+     * so its purchase is refunded.
+     *
+     * @param credits
+     * @return boolean
+     *      - false if the User Service can't be reached
+     */
+    private boolean deliver(List<Operation> credits) {
+        JsonArray array = new JsonArray();
+        for (Operation purchase : credits) {
+            JsonObject credit = new JsonObject();
+            credit.addProperty("uuid", purchase.getUuid());
+            credit.addProperty("userid", purchase.getUserId());
+            credit.addProperty("eventid", purchase.getEventId());
+            credit.addProperty("tickets", purchase.getTickets());
+            array.add(credit);
+        }
+
+        JsonObject body = new JsonObject();
+        body.add("credits", array);
+
+        Set<String> refused = new HashSet<>();
+        try {
+            HttpURLConnection connection = doPostRequest(EventServiceDriver.primaryUserService + "/credits", body);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new Exception();
+            }
+
+            JsonObject responseBody = (JsonObject) parseResponse(connection);
+            for (JsonElement uuid : responseBody.getAsJsonArray("refused")) {
+                refused.add(uuid.getAsString());
+            }
+        }
+        catch (Exception ignored) {
+            System.out.println("[Outbox] Failed to deliver " + credits.size() + " credits, retrying later");
+            return false;
+        }
+
+        List<Operation> delivered = new ArrayList<>(credits.size());
+        for (Operation purchase : credits) {
+            if (refused.contains(purchase.getUuid())) {
+                System.out.println("[Outbox] User Service refused the credit of uuid: " + purchase.getUuid() +
+                        " for user " + purchase.getUserId());
+                refund(purchase);
+            }
+            else {
+                delivered.add(purchase);
+            }
+        }
+
+        EventServiceDriver.eventList.credited(delivered);
+        System.out.println("[Outbox] Delivered " + delivered.size() + " credits up to timestamp #" +
+                credits.get(credits.size() - 1).getTimestamp());
+        return true;
+    }
+
+    /**
+     * Refund the purchase of a refused credit, and replicate the refund.
+     * The replication is registered under the purchase lock and sent after, like a group of confirms.
+     *
+     * @param purchase
+     */
+    private void refund(Operation purchase) {
+        if (EventServiceDriver.state != State.PRIMARY) {
+            return;
+        }
+
+        Replication replication = null;
+        EventServiceDriver.eventList.lockForPurchase();
+        try {
+            Operation refund = EventServiceDriver.eventList.refund(purchase);
+            if (refund != null) {
+                replication = new Replication(Collections.singletonList(refund.toJsonObject()));
+            }
+        }
+        finally {
+            EventServiceDriver.eventList.unlockFromPurchase();
+        }
+
+        if (replication != null) {
+            EventServiceDriver.eventList.awaitDurable();
+            replication.startReplicate();
+        }
+    }
+}
@@ -1,12 +1,21 @@
 package EventService.MultithreadingProcess;
 
+import EventService.EventConcurrency.Operation;
+import EventService.EventConcurrency.OperationLog;
+import EventService.EventConcurrency.Snapshot;
 import EventService.EventServiceDriver;
 import EventService.Servlet.BaseServlet;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
+import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 /**
  * FullBackup class to handle full backup request.
@@ -15,11 +24,52 @@ public class FullBackup extends BaseServlet {
 
     /**
      * Start the backup operation in primary.
+     * A restarted service which still holds its data up to the timestamp only gets the operations after it,
+     * as long as the operation log covers them and its operation at the timestamp is ours.
+     * With a local snapshot, the snapshot file is shipped without blocking the writers,
+     * otherwise the data is encoded under the backup lock.
+     *
+     * @param address
+     * @param timestamp
+     *      - last Lamport Timestamp the service holds, 0 for a new service
+     * @param uuid
+     *      - uuid of the operation of the service at the timestamp, null if it doesn't know
+     */
+    public void startBackup(String address, int timestamp, String uuid) {
+        if (timestamp > 0 && uuid != null && sendDelta(address, timestamp, uuid)) {
+            return;
+        }
+
+        startBackup(address);
+    }
+
+    /**
+     * Start the full backup operation in primary.
+     * With a local snapshot, the snapshot file is shipped without blocking the writers,
+     * otherwise the data is encoded under the backup lock.
      *
      * @param address
      */
     public void startBackup(String address) {
         System.out.println("[Backup] Starting backup to " + address);
+
+        if (EventServiceDriver.eventList.hasSnapshotFile()) {
+            try {
+                if (shipSnapshot(address) == HttpURLConnection.HTTP_OK) {
+                    System.out.println("[Backup] Finished backup to " + address);
+                }
+                else {
+                    throw new IOException();
+                }
+            }
+            catch (IOException ignored) {
+                System.out.println("[Backup] Failed to backup to " + address + ", remove from the list");
+                EventServiceDriver.eventServiceList.removeService(address);
+            }
+
+            return;
+        }
+
         EventServiceDriver.eventList.lockForBackup();
 
         try {
@@ -44,14 +94,136 @@ public class FullBackup extends BaseServlet {
     }
 
     /**
-     * Return the snapshot of current timestamp, event data, and committed log.
+     * Send the operations after the timestamp to a restarted service.
+     * The service may have applied an operation the primary never committed, from an old primary,
+     * so its last operation must match ours at the same timestamp.
+     *
+     * @param address
+     * @param timestamp
+     * @param uuid
+     * @return boolean
+     *      - false if the histories differ, the operation log doesn't cover them, or the service can't apply them
+     */
+    private boolean sendDelta(String address, int timestamp, String uuid) {
+        OperationLog operations = EventServiceDriver.eventList.getOperationLog();
+        if (timestamp > EventServiceDriver.lamportTimestamps.get() || !operations.covers(timestamp)) {
+            System.out.println("[Backup] Operations after timestamp #" + timestamp + " are no longer kept");
+            return false;
+        }
+
+        Operation last = operations.get(timestamp);
+        if (last == null || !last.getUuid().equals(uuid)) {
+            System.out.println("[Backup] Operation of " + address + " at timestamp #" + timestamp +
+                    " doesn't match, fall back to full backup");
+            return false;
+        }
+
+        List<Operation> delta = operations.range(timestamp, Integer.MAX_VALUE);
+        if (!operations.covers(timestamp)) {
+            return false; // truncated meanwhile
+        }
+
+        JsonArray array = new JsonArray();
+        for (Operation op : delta) {
+            array.add(op.toJsonObject());
+        }
+
+        JsonObject requestBody = new JsonObject();
+        requestBody.addProperty("after", timestamp);
+        requestBody.add("operations", array);
+
+        try {
+            System.out.println("[Backup] Sending " + delta.size() + " operations after timestamp #" +
+                    timestamp + " to " + address);
+            HttpURLConnection connection = doPostRequest(address + "/backup", requestBody);
+
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                System.out.println("[Backup] Finished delta to " + address);
+                return true;
+            }
+        }
+        catch (IOException ignored) {}
+
+        System.out.println("[Backup] Failed to send delta to " + address + ", fall back to full backup");
+        return false;
+    }
+
+    /**
+     * POST the local snapshot to the address and return the response code.
+     * The request is written on a plain SocketChannel, so the file goes from the page cache to the socket
+     * with FileChannel.transferTo. The operations committed after the snapshot follow it in the same body,
+     * and the operations committed from now on reach the new replica by replication, which is already sent to it.
+     *
+     * @param address
+     * @return int
+     * @throws IOException
+     */
+    private int shipSnapshot(String address) throws IOException {
+        int colon = address.lastIndexOf(':');
+        InetSocketAddress target = new InetSocketAddress(address.substring(0, colon),
+                Integer.parseInt(address.substring(colon + 1)));
+
+        try (Snapshot snapshot = EventServiceDriver.eventList.openSnapshot();
+             SocketChannel channel = SocketChannel.open()) {
+            channel.socket().connect(target, 5000);
+
+            String header = "POST /backup HTTP/1.1\r\n" +
+                    "Host: " + address + "\r\n" +
+                    "Content-Type: " + EventServiceDriver.APP_TYPE + "\r\n" +
+                    "Content-Length: " + snapshot.length() + "\r\n" +
+                    "Connection: close\r\n\r\n";
+            ByteBuffer buffer = ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            System.out.println("[Backup] Shipping snapshot with timestamp #" + snapshot.getTimestamp() +
+                    ", " + snapshot.length() + " bytes to " + address);
+            snapshot.transferTo(channel);
+
+            return readStatus(channel);
+        }
+    }
+
+    /**
+     * Read the status code from the status line of the response.
+     *
+     * @param channel
+     * @return int
+     * @throws IOException
+     */
+    private int readStatus(SocketChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        StringBuilder line = new StringBuilder();
+
+        while (line.indexOf("\r\n") < 0 && buffer.hasRemaining()) {
+            int position = buffer.position();
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+
+            line.append(new String(buffer.array(), position, buffer.position() - position, StandardCharsets.US_ASCII));
+        }
+
+        // HTTP/1.1 200 OK
+        String[] status = line.toString().split(" ");
+        if (status.length < 2) {
+            throw new IOException("No response from backup");
+        }
+
+        return Integer.parseInt(status[1].trim());
+    }
+
+    /**
+     * Return the snapshot of current timestamp, event data, committed log, watermark, and credit outbox.
      *
      * @return JsonObject
      */
     public JsonObject getData() {
         JsonObject data = new JsonObject();
 
-        int timestamp = EventServiceDriver.lamportTimestamps.get();
+        // under the backup lock no write allocates a timestamp
+        int timestamp = Math.toIntExact(EventServiceDriver.lamportTimestamps.get());
         data.addProperty("timestamp", timestamp);
 
         JsonArray eventList = EventServiceDriver.eventList.toJsonArray();
@@ -59,6 +231,8 @@ public class FullBackup extends BaseServlet {
 
         JsonArray committedLog = EventServiceDriver.eventList.getCommittedLog();
         data.add("committedlog", committedLog);
+        data.addProperty("watermark", EventServiceDriver.eventList.getWatermark());
+        data.add("outbox", EventServiceDriver.eventList.getCreditOutbox());
 
         return data;
     }
@@ -1,5 +1,6 @@
 package EventService.MultithreadingProcess;
 
+import EventService.EventConcurrency.Operation;
 import EventService.Servlet.BaseServlet;
 import EventService.EventServiceDriver;
 import Usage.ServiceName;
@@ -105,6 +106,14 @@ public class Gossip extends BaseServlet implements Runnable {
             try {
                 JsonObject requestBody = new JsonObject();
                 requestBody.addProperty("port", EventServiceDriver.properties.get("port"));
+                int timestamp = Math.toIntExact(EventServiceDriver.lamportTimestamps.get());
+                requestBody.addProperty("timestamp", timestamp);
+
+                // the uuid of the last operation lets the primary check that our history matches its own
+                Operation last = EventServiceDriver.eventList.getOperationLog().get(timestamp);
+                if (last != null) {
+                    requestBody.addProperty("uuid", last.getUuid());
+                }
                 HttpURLConnection connection = doPostRequest(this.url + "/greet/event", requestBody);
 
                 if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
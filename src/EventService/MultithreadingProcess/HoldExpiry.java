@@ -0,0 +1,43 @@
+package EventService.MultithreadingProcess;
+
+import EventService.EventServiceDriver;
+
+/**
+ * HoldExpiry class to release the tickets reserved by purchases which never confirmed,
+ * when the request died before its confirm within the time to live.
+ */
+public class HoldExpiry implements Runnable {
+    private final int ttl;
+
+    /**
+     * Constructor of HoldExpiry.
+     *
+     * @param ttl
+     *      - in seconds
+     */
+    public HoldExpiry(int ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * run method to start the operation, check the holds a few times per time to live.
+     */
+    @Override
+    public void run() {
+        long interval = Math.max(this.ttl * 1000L / 4, 100);
+
+        while (EventServiceDriver.alive) {
+            try {
+                Thread.sleep(interval);
+
+                int released = EventServiceDriver.eventList.expireHolds(this.ttl * 1000L);
+                if (released > 0) {
+                    System.out.println("[Purchase] Released " + released + " expired holds");
+                }
+            }
+            catch (InterruptedException ie) {
+                ie.printStackTrace();
+            }
+        }
+    }
+}
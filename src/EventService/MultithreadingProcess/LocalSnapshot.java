@@ -0,0 +1,47 @@
+package EventService.MultithreadingProcess;
+
+import EventService.EventServiceDriver;
+
+import java.io.IOException;
+
+/**
+ * LocalSnapshot class to write the local snapshot of EventList in the background.
+ * Writers are only paused while the inventories and the committed log are copied,
+ * and the write-ahead log covered by the snapshot is truncated after every pass.
+ */
+public class LocalSnapshot implements Runnable {
+    private final int interval;
+
+    /**
+     * Constructor of LocalSnapshot.
+     *
+     * @param interval
+     *      - in seconds
+     */
+    public LocalSnapshot(int interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * run method to start the operation.
+     */
+    @Override
+    public void run() {
+        while (EventServiceDriver.alive) {
+            try {
+                Thread.sleep(this.interval * 1000L);
+
+                int timestamp = EventServiceDriver.eventList.snapshot();
+                if (timestamp > -1) {
+                    System.out.println("[Snapshot] Local snapshot written with timestamp #" + timestamp);
+                }
+            }
+            catch (IOException ioe) {
+                System.out.println("[Snapshot] Failed to write the local snapshot: " + ioe.getMessage());
+            }
+            catch (InterruptedException ie) {
+                ie.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package EventService.MultithreadingProcess;
+
+import EventService.EventConcurrency.OperationLog;
+import EventService.EventServiceDriver;
+import Usage.State;
+import com.google.gson.JsonArray;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * LogCompaction class to drop or archive the committed logs which are no longer needed for dedup.
+ * A log can be dropped when every replica has applied it (at or below the watermark)
+ * and it is older than the dedup window of front end retries.
+ * The operation log is also truncated below the watermark once it grows over its memory limit.
+ * A persistent EventList is checkpointed at the end of every pass.
+ */
+public class LogCompaction implements Runnable {
+    private final int dedupWindow;
+    private final int interval;
+    private final String archivePath;
+    private final long operationLogLimit;
+
+    /**
+     * Constructor of LogCompaction.
+     *
+     * @param dedupWindow
+     *      - in seconds
+     * @param interval
+     *      - in seconds
+     * @param archivePath
+     *      - null for dropping without archive
+     * @param operationLogLimit
+     *      - in bytes
+     */
+    public LogCompaction(int dedupWindow, int interval, String archivePath, long operationLogLimit) {
+        this.dedupWindow = dedupWindow;
+        this.interval = interval;
+        this.archivePath = archivePath;
+        this.operationLogLimit = operationLogLimit;
+    }
+
+    /**
+     * run method to start the operation.
+     */
+    @Override
+    public void run() {
+        while (EventServiceDriver.alive) {
+            try {
+                Thread.sleep(this.interval * 1000L);
+                compact();
+            }
+            catch (InterruptedException ie) {
+                ie.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Advance the watermark if current service is the primary, then compact the committed log.
+     * Secondaries follow the watermark sent with the replications.
+     */
+    private void compact() {
+        if (EventServiceDriver.state == State.PRIMARY) {
+            EventServiceDriver.eventList.advanceWatermark(Replication.getWatermark());
+        }
+
+        JsonArray archive = (this.archivePath == null) ? null : new JsonArray();
+        int dropped = EventServiceDriver.eventList.compactLog(this.dedupWindow, archive);
+
+        if (dropped > 0) {
+            System.out.println("[Compaction] Dropped " + dropped + " committed logs at or below watermark #" +
+                    EventServiceDriver.eventList.getWatermark());
+
+            if (archive != null) {
+                archive(archive);
+            }
+        }
+
+        OperationLog operations = EventServiceDriver.eventList.getOperationLog();
+        if (operations.memoryUsage() > this.operationLogLimit) {
+            operations.truncateBefore(EventServiceDriver.eventList.getWatermark() + 1);
+            System.out.println("[Compaction] Operation log truncated, " + operations.size() +
+                    " operations from timestamp #" + operations.getFirstTimestamp() + " are kept");
+        }
+
+        EventServiceDriver.eventList.checkpoint();
+    }
+
+    /**
+     * Append the dropped logs into the archive file, one JSON object per line.
+     *
+     * @param archive
+     */
+    private void archive(JsonArray archive) {
+        try (PrintWriter pw = new PrintWriter(new FileWriter(this.archivePath, true))) {
+            for (int i = 0; i < archive.size(); i++) {
+                pw.println(archive.get(i));
+            }
+        }
+        catch (IOException ioe) {
+            System.out.println("[Compaction] Failed to archive committed logs into " + this.archivePath);
+        }
+    }
+}
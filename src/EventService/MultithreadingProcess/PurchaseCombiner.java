@@ -0,0 +1,322 @@
+package EventService.MultithreadingProcess;
+
+import EventService.EventConcurrency.Event;
+import EventService.EventConcurrency.Operation;
+import EventService.EventServiceDriver;
+import Usage.State;
+import com.google.gson.JsonObject;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PurchaseCombiner class for primary to purchase in two phases and combine the confirms of the same event.
+ * A purchase first reserves its tickets, then its confirm is queued, and whichever request gets the combiner lock
+ * drains the queue and confirms the whole group with a contiguous range of timestamps allocated at once,
+ * so the group is replicated as one unit. Groups of different events confirm concurrently.
+ * The other requests wait for their own outcome instead of handing the locks over one by one.
+ * A combiner is dropped once it is idle, so only the events being purchased keep one.
+ * A purchase joins its combiner and an idle combiner is dropped under the same entry of the map,
+ * so no purchase is ever queued on a combiner which has been dropped.
+ * The tickets are credited to the user by CreditDispatcher from the outbox of the committed purchases.
+ */
+public class PurchaseCombiner {
+    private static final ConcurrentHashMap<Integer, PurchaseCombiner> combiners = new ConcurrentHashMap<>();
+    private static final int MAX_BATCH = 128; // purchases applied in one pass
+    private static final long COMBINE_WAIT = 1; // milliseconds to wait before trying to combine again
+
+    private final int eventId;
+    private final ConcurrentLinkedQueue<Pending> pending;
+    private final ReentrantLock combining;
+
+    /**
+     * Constructor of PurchaseCombiner.
+     *
+     * @param eventId
+     */
+    private PurchaseCombiner(int eventId) {
+        this.eventId = eventId;
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.combining = new ReentrantLock();
+    }
+
+    /**
+     * Reserve the tickets, then queue the confirm on the combiner of the event
+     * and wait until it is applied, by this thread or by another request.
+     * A uuid committed before is only replicated again with its own timestamp, its credit is in the outbox already.
+     *
+     * @param eventId
+     * @param event
+     * @param uri
+     * @param body
+     * @param uuid
+     * @param userId
+     * @param tickets
+     * @return int
+     *      - response code of the purchase
+     */
+    public static int purchase(int eventId, Event event, String uri, JsonObject body,
+                               String uuid, int userId, int tickets) {
+        List<Integer> timestamp = new ArrayList<>();
+        if (!event.reserve(uuid, tickets, timestamp)) {
+            return HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+
+        if (!timestamp.isEmpty()) {
+            new Replication(uri, body, timestamp.get(0)).startReplicate();
+            return HttpURLConnection.HTTP_OK;
+        }
+
+        Pending purchase = new Pending(event, body, uuid, userId, tickets);
+        PurchaseCombiner combiner = PurchaseCombiner.combiners.compute(eventId, (id, current) -> {
+            PurchaseCombiner joined = (current == null) ? new PurchaseCombiner(id) : current;
+            joined.pending.add(purchase);
+            return joined;
+        });
+
+        combiner.await(purchase);
+        return purchase.status;
+    }
+
+    /**
+     * Combine the queue until the purchase is applied, by this thread or by another request,
+     * then drop the combiner if nothing is queued on it.
+     *
+     * @param purchase
+     */
+    private void await(Pending purchase) {
+        while (!purchase.isDone()) {
+            if (this.combining.tryLock()) {
+                try {
+                    combine();
+                }
+                finally {
+                    this.combining.unlock();
+                }
+            }
+            else {
+                purchase.await();
+            }
+        }
+
+        if (this.combining.tryLock()) {
+            try {
+                // a purchase joins under the same entry, so none can join once the combiner is dropped
+                PurchaseCombiner.combiners.computeIfPresent(this.eventId,
+                        (eventId, current) -> (current == this && this.pending.isEmpty()) ? null : current);
+            }
+            finally {
+                this.combining.unlock();
+            }
+        }
+    }
+
+    /**
+     * Drain the queue, secure the tickets of the group, and confirm the secured purchases with a range of timestamps.
+     * The purchase lock of EventList is held while the group is secured and confirmed,
+     * the replication is registered before it is released and sent after,
+     * and every outcome waits for the write-ahead log once.
+     */
+    private void combine() {
+        List<Pending> group = new ArrayList<>();
+        Pending purchase;
+        while (group.size() < MAX_BATCH && (purchase = this.pending.poll()) != null) {
+            group.add(purchase);
+        }
+
+        if (group.isEmpty()) {
+            return;
+        }
+
+        List<Pending> committed = new ArrayList<>();
+        List<Operation> aborted = new ArrayList<>();
+        Replication replication = null;
+        EventServiceDriver.eventList.lockForPurchase();
+        try {
+            for (Pending p : group) {
+                try {
+                    if (secure(p)) {
+                        committed.add(p);
+                    }
+                }
+                catch (Exception ignored) {
+                    p.status = HttpURLConnection.HTTP_BAD_REQUEST;
+                }
+            }
+
+            confirm(committed, aborted);
+            replication = replicate(committed, aborted);
+        }
+        finally {
+            EventServiceDriver.eventList.unlockFromPurchase();
+
+            if (replication != null) {
+                replication.startReplicate();
+            }
+
+            // the combiner appended every entry of the group, so its last one covers them all
+            EventServiceDriver.eventList.awaitDurable();
+            for (Pending p : group) {
+                p.done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Take over the tickets of the reserved purchase.
+     * A service which is no longer primary releases it, the new primary assigns the timestamps.
+     *
+     * @param purchase
+     * @return boolean
+     *      - true if the purchase can be confirmed
+     */
+    private boolean secure(Pending purchase) {
+        if (EventServiceDriver.state != State.PRIMARY) {
+            purchase.event.release(purchase.uuid);
+            return false;
+        }
+
+        return purchase.event.secure(purchase.uuid, purchase.tickets);
+    }
+
+    /**
+     * Allocate a contiguous range of timestamps for the secured purchases and commit them in order.
+     * If a commit fails, the rest of the range is aborted.
+     *
+     * @param secured
+     * @param aborted
+     *      - container for the abort operations
+     */
+    private void confirm(List<Pending> secured, List<Operation> aborted) {
+        if (secured.isEmpty()) {
+            return;
+        }
+
+        int first = Math.toIntExact(EventServiceDriver.lamportTimestamps.allocate(secured.size()));
+        for (int i = 0; i < secured.size(); i++) {
+            Pending p = secured.get(i);
+
+            try {
+                p.event.confirm(p.uuid, p.userId, p.tickets, first + i);
+            }
+            catch (Exception ignored) {
+                abort(secured, i, first + i, aborted);
+                return;
+            }
+
+            p.status = HttpURLConnection.HTTP_OK;
+            p.timestamp = first + i;
+        }
+    }
+
+    /**
+     * Abort the purchases from the failed one on and put their tickets back.
+     * Each of them keeps its timestamp with an abort operation, which is replicated like a purchase,
+     * so secondaries never wait for a timestamp nothing is committed with.
+     *
+     * @param secured
+     * @param failed
+     * @param timestamp
+     *      - timestamp allocated for the failed purchase
+     * @param aborted
+     *      - container for the abort operations
+     */
+    private void abort(List<Pending> secured, int failed, int timestamp, List<Operation> aborted) {
+        for (int i = failed; i < secured.size(); i++) {
+            Pending p = secured.get(i);
+            aborted.add(p.event.abort(p.uuid, p.userId, p.tickets, timestamp + i - failed));
+        }
+
+        secured.subList(failed, secured.size()).clear();
+    }
+
+    /**
+     * Register the replication of the newly committed purchases of the group, in the order of their timestamps.
+     * The group is handed to ReplicationBatcher as one unit, each body with its own timestamp,
+     * followed by the abort operations of the range.
+     *
+     * @param committed
+     * @param aborted
+     * @return Replication
+     *      - null if nothing has been committed
+     */
+    private Replication replicate(List<Pending> committed, List<Operation> aborted) {
+        if (committed.isEmpty() && aborted.isEmpty()) {
+            return null;
+        }
+
+        List<JsonObject> bodies = new ArrayList<>(committed.size() + aborted.size());
+        for (Pending p : committed) {
+            p.body.addProperty("timestamp", p.timestamp);
+            bodies.add(p.body);
+        }
+        for (Operation op : aborted) {
+            bodies.add(op.toJsonObject());
+        }
+
+        if (committed.size() > 1) {
+            System.out.println("[Purchase] Replicating " + committed.size() + " purchases of event " + this.eventId +
+                    " with timestamp #" + committed.get(0).timestamp + " to #" +
+                    committed.get(committed.size() - 1).timestamp);
+        }
+        return new Replication(bodies);
+    }
+
+    /**
+     * Nested Pending class to hold a queued purchase and its outcome.
+     */
+    private static class Pending {
+        private final Event event;
+        private final JsonObject body;
+        private final String uuid;
+        private final int userId;
+        private final int tickets;
+        private final CountDownLatch done;
+        private volatile int status; // written by the combiner before done is counted down
+        private int timestamp;
+
+        /**
+         * Constructor of Pending.
+         *
+         * @param event
+         * @param body
+         * @param uuid
+         * @param userId
+         * @param tickets
+         */
+        private Pending(Event event, JsonObject body, String uuid, int userId, int tickets) {
+            this.event = event;
+            this.body = body;
+            this.uuid = uuid;
+            this.userId = userId;
+            this.tickets = tickets;
+            this.done = new CountDownLatch(1);
+            this.status = HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+
+        /**
+         * Return true if the purchase has been applied.
+         *
+         * @return boolean
+         */
+        private boolean isDone() {
+            return this.done.getCount() == 0;
+        }
+
+        /**
+         * Wait a moment for a combiner to apply the purchase.
+         */
+        private void await() {
+            try {
+                this.done.await(COMBINE_WAIT, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException ignored) {}
+        }
+    }
+}
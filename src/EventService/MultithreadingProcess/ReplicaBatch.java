@@ -0,0 +1,160 @@
+package EventService.MultithreadingProcess;
+
+import EventService.EventConcurrency.Event;
+import EventService.EventConcurrency.Operation;
+import EventService.EventServiceDriver;
+import Usage.State;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ReplicaBatch class for secondaries to apply a batch of replications from the primary, whichever transport it came by.
+ * The operations are in the order of their timestamps, and each of them is applied once its predecessor has been,
+ * maybe by another batch still in flight.
+ * An operation out of order is left in the reorder buffer, so the batch holds no thread while it waits,
+ * and the batch is completed once all of its operations are applied and durable.
+ */
+public class ReplicaBatch {
+    private final int watermark;
+    private final int credited;
+    private final List<Operation> operations;
+    private final Executor executor;
+    private final Completion completion;
+    private final AtomicInteger remaining;
+    private volatile int status;
+
+    /**
+     * Interface of the completion of a batch, with the status to answer the primary.
+     */
+    public interface Completion {
+        void complete(int status);
+    }
+
+    /**
+     * Constructor of ReplicaBatch.
+     *
+     * @param watermark
+     * @param credited
+     * @param operations
+     * @param executor
+     *      - to run the operations taken out of the reorder buffer
+     * @param completion
+     */
+    public ReplicaBatch(int watermark, int credited, List<Operation> operations,
+                        Executor executor, Completion completion) {
+        this.watermark = watermark;
+        this.credited = credited;
+        this.operations = operations;
+        this.executor = executor;
+        this.completion = completion;
+        this.remaining = new AtomicInteger(0);
+        this.status = HttpURLConnection.HTTP_OK;
+    }
+
+    /**
+     * Apply the operations in order at once, and leave the others in the reorder buffer.
+     * When the batch reaches beyond the buffer, none of it is scheduled for the primary to resend the batch.
+     */
+    public void schedule() {
+        if (EventServiceDriver.state == State.PRIMARY) {
+            // abort since the request will be resend by frontend again
+            this.completion.complete(HttpURLConnection.HTTP_BAD_REQUEST);
+            return;
+        }
+
+        if (!this.operations.isEmpty()) {
+            int last = this.operations.get(this.operations.size() - 1).getTimestamp();
+            if (!EventServiceDriver.reorderBuffer.admits(last)) {
+                System.out.println("[Reorder] Buffer is full, rejecting request #" +
+                        this.operations.get(0).getTimestamp() + " to #" + last);
+                this.completion.complete(HttpURLConnection.HTTP_UNAVAILABLE);
+                return;
+            }
+        }
+
+        this.remaining.set(this.operations.size() + 1); // one more until every operation is scheduled
+
+        for (Operation operation : this.operations) {
+            if (!EventServiceDriver.reorderBuffer.defer(operation.getTimestamp(),
+                    () -> this.executor.execute(() -> applied(apply(operation))))) {
+                applied(apply(operation));
+            }
+        }
+
+        done();
+    }
+
+    /**
+     * Apply one operation which is in order.
+     *
+     * @param operation
+     * @return boolean
+     *      - true for success, false for fail
+     */
+    public static boolean apply(Operation operation) {
+        if (EventServiceDriver.state == State.PRIMARY) {
+            return false;
+        }
+
+        // for checking the match between uuid and timestamp
+        List<Integer> timestamp = new ArrayList<>();
+        timestamp.add(operation.getTimestamp());
+
+        try {
+            if (operation.getType() == Operation.Type.CREATE) {
+                return EventServiceDriver.eventList.add(operation.getUuid(), operation.getEventName(),
+                        operation.getUserId(), operation.getTickets(), timestamp) > -1;
+            }
+            if (operation.getType() == Operation.Type.ABORT) {
+                EventServiceDriver.eventList.applyAbort(operation);
+                return true;
+            }
+            if (operation.getType() == Operation.Type.REFUND) {
+                return EventServiceDriver.eventList.applyRefund(operation);
+            }
+
+            Event event = EventServiceDriver.eventList.get(operation.getEventId());
+            return event != null && event.purchase(operation.getUuid(), operation.getUserId(),
+                    operation.getTickets(), timestamp);
+        }
+        catch (Exception ignored) {
+            return false;
+        }
+    }
+
+    /**
+     * Count an operation as applied.
+     *
+     * @param success
+     */
+    private void applied(boolean success) {
+        if (!success && this.status == HttpURLConnection.HTTP_OK) {
+            this.status = HttpURLConnection.HTTP_BAD_REQUEST;
+        }
+
+        done();
+    }
+
+    /**
+     * Complete the batch once every operation is applied, after they are durable.
+     * Follow the watermark of the primary, and drop the credits it has delivered.
+     */
+    private void done() {
+        if (this.remaining.decrementAndGet() > 0) {
+            return;
+        }
+
+        try {
+            EventServiceDriver.eventList.advanceWatermark(this.watermark);
+            EventServiceDriver.eventList.dropCredits(this.credited);
+            EventServiceDriver.eventList.awaitAllDurable();
+        }
+        finally {
+            this.completion.complete(this.status);
+        }
+    }
+}
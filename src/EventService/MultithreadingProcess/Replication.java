@@ -1,106 +1,199 @@
 package EventService.MultithreadingProcess;
 
 import EventService.EventServiceDriver;
-import EventService.Servlet.BaseServlet;
+import Usage.AckMode;
 import com.google.gson.JsonObject;
 
-import java.net.HttpURLConnection;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Replication class for primary to replicate data to secondaries.
+ * The operations are handed to ReplicationBatcher, which sends them in batches through the channel of each secondary.
+ * The primary responds once as many secondaries as the acknowledgement mode requires have answered,
+ * and the replication stays in flight for the watermark until all of them have.
+ * A secondary which failed it keeps the watermark below it through the pin of its channel.
  */
-public class Replication extends BaseServlet {
-    private final String uri;
-    private final JsonObject requestBody;
+public class Replication {
+    private static final ConcurrentSkipListSet<Integer> inFlight = new ConcurrentSkipListSet<>();
+    private final List<JsonObject> operations;
+    private final int timestamp;
+    private final boolean demo;
+    private final AckMode ack;
+    private final CountDownLatch done;
+    private final AtomicInteger acknowledged;
+    private final AtomicInteger answered;
+    private volatile int secondaries;
+    private volatile int required;
 
     /**
-     * Constructor of Replication.
-     * Add the timestamp into the request body.
+     * Constructor of Replication for one write.
+     * Add the type and the timestamp into the request body, which becomes the operation.
+     * The request may ask for its own acknowledgement mode instead of the one of the deployment.
      *
      * @param uri
      * @param requestBody
      * @param timestamp
      */
     public Replication(String uri, JsonObject requestBody, int timestamp) {
-        this.uri = uri;
-        this.requestBody = requestBody;
-        this.requestBody.addProperty("timestamp", timestamp);
+        this(Collections.singletonList(requestBody), uri.startsWith("/create") ? "create" : "purchase", timestamp);
     }
 
     /**
-     * Start sending replicate to secondaries concurrently and wait until all replications to finish.
+     * Constructor of Replication for a group of purchases, each request body already carries its own timestamp.
+     * An abort or a refund operation carries its own type too.
+     * The group waits for the strictest acknowledgement mode any of them asks for.
+     *
+     * @param requestBodies
      */
-    public void startReplicate() {
-        List<String> services = EventServiceDriver.eventServiceList.getList();
-        List<Thread> currentTasks = new ArrayList<>();
-
-        for (String url : services) {
-            if (!getCurrentAddress().equals(url)) {
-                Thread newTask = new Thread(new SendReplicate(url));
-                currentTasks.add(newTask);
-                newTask.start();
-
-                if (this.requestBody.get("demo") != null) {
-                    // simulate election after different version, and resending request from frontend to new primary
-                    try {
-                        newTask.join();
-                        System.out.println("[Demo] One replicate has been sent, shutting down...");
-                    }
-                    catch (InterruptedException ignored) {}
-                    System.exit(-1);
-                }
+    public Replication(List<JsonObject> requestBodies) {
+        this(requestBodies, "purchase", requestBodies.get(0).get("timestamp").getAsInt());
+    }
+
+    /**
+     * Constructor of Replication.
+     *
+     * @param requestBodies
+     * @param type
+     * @param timestamp
+     *      - timestamp of the first operation
+     */
+    private Replication(List<JsonObject> requestBodies, String type, int timestamp) {
+        this.operations = new ArrayList<>(requestBodies.size());
+        this.timestamp = timestamp;
+        this.done = new CountDownLatch(1);
+        this.acknowledged = new AtomicInteger(0);
+        this.answered = new AtomicInteger(0);
+        Replication.inFlight.add(timestamp);
+
+        boolean demo = false;
+        AckMode ack = AckMode.ASYNC;
+        for (JsonObject body : requestBodies) {
+            AckMode requested = getAckMode(body);
+            if (requested.compareTo(ack) < 0) {
+                ack = requested;
+            }
+
+            if (body.get("type") == null) {
+                body.addProperty("type", type);
+            }
+            if (body.get("timestamp") == null) {
+                body.addProperty("timestamp", timestamp);
             }
+            demo |= body.get("demo") != null;
+            this.operations.add(body);
         }
+        this.demo = demo;
+        this.ack = ack;
+    }
 
-        try {
-            for (Thread task : currentTasks) {
-                task.join();
+    /**
+     * Return the acknowledgement mode the request asks for, or the one of the deployment.
+     * The mode is removed from the body since secondaries have no use of it.
+     *
+     * @param body
+     * @return AckMode
+     */
+    private static AckMode getAckMode(JsonObject body) {
+        String mode = EventServiceDriver.properties.get("replicationAck");
+
+        if (body.get("ack") != null) {
+            try {
+                return AckMode.of(body.remove("ack").getAsString());
             }
+            catch (IllegalArgumentException ignored) {}
         }
-        catch (InterruptedException ie) {
-            ie.printStackTrace();
+
+        return AckMode.of(mode);
+    }
+
+    /**
+     * Return the highest timestamp which every secondary has applied:
+     * right below the oldest replication still in flight or failed by a secondary, or the current timestamp.
+     *
+     * @return int
+     */
+    public static int getWatermark() {
+        int current = Math.toIntExact(Math.min(EventServiceDriver.lamportTimestamps.get(),
+                ReplicationChannel.getPinned() - 1));
+
+        try {
+            return Math.min(current, Replication.inFlight.first() - 1);
+        }
+        catch (NoSuchElementException ignored) {
+            return current;
         }
     }
 
     /**
-     * Nested SendReplicate class implements Runnable.
-     * Send the replicate concurrently.
-     * If the service is no longer there, remove it from the list.
+     * Return the operations to replicate.
+     *
+     * @return List
+     */
+    List<JsonObject> getOperations() {
+        return this.operations;
+    }
+
+    /**
+     * Check if the replication simulates a primary failing in the middle of it.
+     *
+     * @return boolean
+     */
+    boolean isDemo() {
+        return this.demo;
+    }
+
+    /**
+     * For ReplicationBatcher to tell how many secondaries the batch of the replication is sent to.
+     *
+     * @param secondaries
      */
-    private class SendReplicate implements Runnable {
-        private final String url;
-
-        /**
-         * Constructor of SendReplicate.
-         * @param url
-         */
-        private SendReplicate(String url) {
-            this.url = url;
+    void sent(int secondaries) {
+        this.secondaries = secondaries;
+        this.required = this.ack.required(secondaries);
+
+        if (this.required == 0) {
+            this.done.countDown();
         }
+        if (secondaries == 0) {
+            Replication.inFlight.remove(this.timestamp);
+        }
+    }
 
-        /**
-         * run method to start the operation.
-         */
-        @Override
-        public void run() {
-            try {
-                HttpURLConnection connection = doPostRequest(
-                        this.url + Replication.this.uri, Replication.this.requestBody);
+    /**
+     * For ReplicationBatcher to count a secondary which has answered the batch of the replication.
+     * A secondary which failed it does not acknowledge it, the replication is released once all have answered
+     * since the channel of that secondary has pinned the watermark below it already.
+     *
+     * @param applied
+     */
+    void answered(boolean applied) {
+        if (applied && this.acknowledged.incrementAndGet() == this.required) {
+            this.done.countDown();
+        }
 
-                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-                    throw new Exception();
-                }
+        if (this.answered.incrementAndGet() == this.secondaries) {
+            this.done.countDown();
+            Replication.inFlight.remove(this.timestamp);
+        }
+    }
 
-                System.out.println("[Replication] Sent replicate #" +
-                        Replication.this.requestBody.get("timestamp").getAsInt() + " to " + this.url);
-            }
-            catch (Exception ignored) {
-                ignored.printStackTrace();
-                System.out.println("[Replication] Remove " + this.url + " from the list");
-                EventServiceDriver.eventServiceList.removeService(this.url);
-            }
+    /**
+     * Hand the operations to the batcher, and wait until enough secondaries have answered for the acknowledgement mode.
+     */
+    public void startReplicate() {
+        ReplicationBatcher.submit(this);
+
+        try {
+            this.done.await();
+        }
+        catch (InterruptedException ie) {
+            ie.printStackTrace();
         }
     }
 }
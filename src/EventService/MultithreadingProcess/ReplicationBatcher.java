@@ -0,0 +1,169 @@
+package EventService.MultithreadingProcess;
+
+import EventService.EventServiceDriver;
+import EventService.Servlet.BaseServlet;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReplicationBatcher class for primary to coalesce the replications into batches.
+ * The writes committed within the batch wait, or up to the batch size, are sent to /replicate in one request,
+ * with the operations in the order of their timestamps.
+ * A batch is encoded once, in JSON or in the binary frame of the transport,
+ * and the same bytes are queued into the channel of every secondary,
+ * and each secondary answering the batch is counted for every replication of it.
+ */
+public class ReplicationBatcher extends BaseServlet implements Runnable {
+    private static final LinkedBlockingQueue<Replication> queue = new LinkedBlockingQueue<>();
+    private static final long IDLE_WAIT = 1; // seconds to wait for a replication before checking again
+
+    private final int batchSize;
+    private final long batchWait;
+
+    /**
+     * Constructor of ReplicationBatcher.
+     *
+     * @param batchSize
+     *      - operations sent in one batch
+     * @param batchWait
+     *      - milliseconds to wait for more operations after the first one
+     */
+    public ReplicationBatcher(int batchSize, long batchWait) {
+        this.batchSize = batchSize;
+        this.batchWait = batchWait;
+    }
+
+    /**
+     * Queue a replication into the next batch.
+     *
+     * @param replication
+     */
+    static void submit(Replication replication) {
+        ReplicationBatcher.queue.add(replication);
+    }
+
+    /**
+     * run method to start the operation.
+     */
+    @Override
+    public void run() {
+        while (EventServiceDriver.alive) {
+            try {
+                Replication first = ReplicationBatcher.queue.poll(IDLE_WAIT, TimeUnit.SECONDS);
+                if (first != null) {
+                    send(collect(first));
+                }
+            }
+            catch (InterruptedException ignored) {}
+        }
+    }
+
+    /**
+     * Collect the replications queued within the batch wait after the first one, up to the batch size.
+     *
+     * @param first
+     * @return List
+     * @throws InterruptedException
+     */
+    private List<Replication> collect(Replication first) throws InterruptedException {
+        List<Replication> batch = new ArrayList<>();
+        batch.add(first);
+        int operations = first.getOperations().size();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.batchWait);
+        while (operations < this.batchSize) {
+            Replication next = ReplicationBatcher.queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+
+            batch.add(next);
+            operations += next.getOperations().size();
+        }
+
+        return batch;
+    }
+
+    /**
+     * Encode the operations of a batch for the transport.
+     *
+     * @param watermark
+     * @param credited
+     * @param operations
+     * @return byte[]
+     */
+    private byte[] encode(int watermark, int credited, List<JsonObject> operations) {
+        if (EventServiceDriver.properties.get("replicationTransport").equals("binary")) {
+            return ReplicationFrame.encode(watermark, credited, operations);
+        }
+
+        JsonArray array = new JsonArray();
+        for (JsonObject operation : operations) {
+            array.add(operation);
+        }
+
+        JsonObject body = new JsonObject();
+        body.addProperty("watermark", watermark);
+        body.addProperty("credited", credited);
+        body.add("operations", array);
+
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encode the batch once, and queue it into the channel of every secondary.
+     *
+     * @param batch
+     */
+    private void send(List<Replication> batch) {
+        List<JsonObject> operations = new ArrayList<>();
+        boolean demo = false;
+        for (Replication replication : batch) {
+            operations.addAll(replication.getOperations());
+            demo |= replication.isDemo();
+        }
+        operations.sort(Comparator.comparingInt(o -> o.get("timestamp").getAsInt()));
+
+        byte[] bytes = encode(Replication.getWatermark(), EventServiceDriver.eventList.getCredited(), operations);
+
+        int first = operations.get(0).get("timestamp").getAsInt();
+        int last = operations.get(operations.size() - 1).get("timestamp").getAsInt();
+
+        List<String> services = new ArrayList<>();
+        for (String url : EventServiceDriver.eventServiceList.getList()) {
+            if (!getCurrentAddress().equals(url)) {
+                services.add(url);
+            }
+        }
+
+        if (demo && !services.isEmpty()) {
+            // simulate election after different version, and resending request from frontend to new primary
+            ReplicationChannel.of(services.get(0)).send(bytes, first, last, applied -> {
+                System.out.println("[Demo] One replicate has been sent, shutting down...");
+                System.exit(-1);
+            });
+            return;
+        }
+
+        for (Replication replication : batch) {
+            replication.sent(services.size());
+        }
+
+        ReplicationChannel.Answer answered = applied -> {
+            for (Replication replication : batch) {
+                replication.answered(applied);
+            }
+        };
+
+        for (String url : services) {
+            ReplicationChannel.of(url).send(bytes, first, last, answered);
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package EventService.MultithreadingProcess;
+
+import EventService.EventServiceDriver;
+import EventService.Servlet.BaseServlet;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ReplicationChannel class for primary to replicate to one secondary.
+ * Every secondary has one long-lived channel with its own queue. A few senders take the batches off the queue
+ * in the order of their timestamps and post them to /replicate over keep-alive connections,
+ * or with the binary transport, write them as frames into a persistent socket of each sender,
+ * so several of them are in flight at once and the reorder buffer of the secondary puts them back in order.
+ * The batches leave the queue in order, but with more than one sender they may reach the secondary out of order,
+ * so a slow batch never holds up the ones behind it. A window of one sender sends strictly in order.
+ * Each batch is already encoded, the bytes are shared by the channels of all secondaries.
+ * The callback of a batch is run once the secondary has answered it.
+ * Since a secondary applies in the order of the timestamps, every timestamp up to the last one of an applied batch
+ * has been applied by it, which is tracked for the status of the replicas.
+ * A secondary with a full reorder buffer is only busy,
+ * so the batch is resent with a growing delay for as long as it answers 503.
+ * If the secondary is gone or fails the batch, it is removed from the list and the channel is closed.
+ * A secondary which failed a batch pins the watermark below it, until it applies a later batch after rejoining.
+ */
+public class ReplicationChannel extends BaseServlet implements Runnable {
+    private static final ConcurrentHashMap<String, ReplicationChannel> channels = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Integer> pins = new ConcurrentHashMap<>(); // url -> timestamp failed
+    private static final long BUSY_WAIT = 10; // milliseconds before the first resend, doubled each time
+    private static final long MAX_BUSY_WAIT = 1000; // milliseconds between resends at most
+    private static final long IDLE_WAIT = 1; // seconds a sender waits for the queue before checking the channel
+    private static final int CONNECT_TIMEOUT = 5000; // milliseconds
+    private static final int READ_TIMEOUT = 30000; // milliseconds to wait for the answer of a frame
+
+    private final String url;
+    private final boolean binary;
+    private final LinkedBlockingQueue<Write> queue;
+    private final AtomicBoolean closed;
+    private final AtomicInteger applied; // last timestamp the secondary has applied
+    private final AtomicInteger pending; // batches queued or in flight
+
+    /**
+     * Interface of the callback of a batch, run once the secondary has answered it.
+     */
+    interface Answer {
+        void answered(boolean applied);
+    }
+
+    /**
+     * Nested Write class of one batch waiting in the queue.
+     */
+    private static class Write {
+        private final byte[] body;
+        private final int first;
+        private final int last;
+        private final Answer answered;
+
+        /**
+         * Constructor of Write.
+         *
+         * @param body
+         * @param first
+         * @param last
+         * @param answered
+         */
+        private Write(byte[] body, int first, int last, Answer answered) {
+            this.body = body;
+            this.first = first;
+            this.last = last;
+            this.answered = answered;
+        }
+    }
+
+    /**
+     * Constructor of ReplicationChannel.
+     *
+     * @param url
+     */
+    private ReplicationChannel(String url) {
+        this.url = url;
+        this.binary = EventServiceDriver.properties.get("replicationTransport").equals("binary");
+        this.queue = new LinkedBlockingQueue<>();
+        this.closed = new AtomicBoolean(false);
+        this.applied = new AtomicInteger(0);
+        this.pending = new AtomicInteger(0);
+    }
+
+    /**
+     * Return the channel to the secondary, open it with its senders if there is none.
+     *
+     * @param url
+     * @return ReplicationChannel
+     */
+    static ReplicationChannel of(String url) {
+        return ReplicationChannel.channels.computeIfAbsent(url, key -> {
+            ReplicationChannel channel = new ReplicationChannel(key);
+            int window = Integer.parseInt(EventServiceDriver.properties.get("replicationWindow"));
+
+            for (int i = 0; i < window; i++) {
+                Thread sender = new Thread(channel);
+                sender.setDaemon(true);
+                sender.start();
+            }
+
+            System.out.println("[Replication] Opened channel to " + key + " with " + window + " senders");
+            return channel;
+        });
+    }
+
+    /**
+     * Queue an encoded batch, the callback is run once the secondary has answered or the channel is closed.
+     *
+     * @param body
+     * @param first
+     *      - timestamp of the first operation
+     * @param last
+     *      - timestamp of the last operation
+     * @param answered
+     */
+    void send(byte[] body, int first, int last, Answer answered) {
+        this.pending.incrementAndGet();
+        this.queue.add(new Write(body, first, last, answered));
+
+        // a channel closed meanwhile is not served any more
+        if (this.closed.get()) {
+            drain();
+        }
+    }
+
+    /**
+     * run method of a sender, post the queued batches one by one until the channel is closed.
+     * With the binary transport, the sender keeps its own socket to the secondary.
+     */
+    @Override
+    public void run() {
+        BinaryConnection socket = this.binary ? new BinaryConnection(this.url) : null;
+
+        try {
+            while (EventServiceDriver.alive && !this.closed.get()) {
+                try {
+                    Write write = this.queue.poll(IDLE_WAIT, TimeUnit.SECONDS);
+                    if (write != null) {
+                        post(write, socket);
+                    }
+                }
+                catch (InterruptedException ignored) {}
+            }
+        }
+        finally {
+            if (socket != null) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Post the batch, and resend it while the reorder buffer of the secondary is full.
+     * Only an I/O error or another status than 503 fails the batch.
+     *
+     * @param write
+     * @param socket
+     *      - null for HTTP
+     */
+    private void post(Write write, BinaryConnection socket) {
+        boolean applied = false;
+
+        try {
+            int code = transmit(write, socket);
+
+            long wait = BUSY_WAIT;
+            while (code == HttpURLConnection.HTTP_UNAVAILABLE && EventServiceDriver.alive && !this.closed.get()) {
+                Thread.sleep(wait);
+                wait = Math.min(wait * 2, MAX_BUSY_WAIT);
+                code = transmit(write, socket);
+            }
+
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new Exception();
+            }
+
+            applied = true;
+            this.applied.accumulateAndGet(write.last, Math::max);
+            // applied in order, so the secondary has caught up with the batch it failed
+            ReplicationChannel.pins.computeIfPresent(this.url, (url, pin) -> (pin <= write.last) ? null : pin);
+            System.out.println("[Replication] Sent replicate #" + write.first + " to #" + write.last +
+                    " to " + this.url);
+        }
+        catch (Exception ignored) {
+            pin(write);
+            close();
+        }
+        finally {
+            this.pending.decrementAndGet();
+            write.answered.answered(applied);
+        }
+    }
+
+    /**
+     * Pin the watermark below the first timestamp of a batch the secondary has not applied.
+     *
+     * @param write
+     */
+    private void pin(Write write) {
+        ReplicationChannel.pins.merge(this.url, write.first, Math::min);
+    }
+
+    /**
+     * Return the lowest timestamp which a secondary failed to apply and hasn't caught up with since.
+     *
+     * @return int
+     *      - Integer.MAX_VALUE if no secondary is behind
+     */
+    static int getPinned() {
+        int pinned = Integer.MAX_VALUE;
+        for (int pin : ReplicationChannel.pins.values()) {
+            pinned = Math.min(pinned, pin);
+        }
+
+        return pinned;
+    }
+
+    /**
+     * Send the batch once, and return the status the secondary answered.
+     *
+     * @param write
+     * @param socket
+     *      - null for HTTP
+     * @return int
+     * @throws IOException
+     */
+    private int transmit(Write write, BinaryConnection socket) throws IOException {
+        if (socket != null) {
+            return socket.exchange(write.body);
+        }
+
+        HttpURLConnection connection = doPostRequest(this.url + "/replicate", write.body);
+        int code = connection.getResponseCode();
+        consume(connection);
+
+        return code;
+    }
+
+    /**
+     * Read the rest of the response, so the connection goes back to the keep-alive pool.
+     *
+     * @param connection
+     */
+    private void consume(HttpURLConnection connection) {
+        try (InputStream is = (connection.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST) ?
+                connection.getInputStream() : connection.getErrorStream()) {
+            if (is != null) {
+                byte[] buffer = new byte[1024];
+                while (is.read(buffer) != -1) {
+                    // discard
+                }
+            }
+        }
+        catch (IOException ignored) {}
+    }
+
+    /**
+     * Close the channel and remove the secondary from the list, the queued batches are released.
+     */
+    private void close() {
+        if (!this.closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        ReplicationChannel.channels.remove(this.url, this);
+        System.out.println("[Replication] Remove " + this.url + " from the list");
+        EventServiceDriver.eventServiceList.removeService(this.url);
+        drain();
+    }
+
+    /**
+     * Release every queued batch without sending it.
+     */
+    private void drain() {
+        List<Write> writes = new ArrayList<>();
+        this.queue.drainTo(writes);
+
+        for (Write write : writes) {
+            pin(write);
+            this.pending.decrementAndGet();
+            write.answered.answered(false);
+        }
+    }
+
+    /**
+     * Return the status of every secondary with an open channel:
+     * the last timestamp it has applied, how far it is behind the primary, and its batches queued or in flight.
+     *
+     * @return JsonArray
+     */
+    public static JsonArray toJsonArray() {
+        JsonArray replicas = new JsonArray();
+        long current = EventServiceDriver.lamportTimestamps.get();
+
+        for (ReplicationChannel channel : ReplicationChannel.channels.values()) {
+            JsonObject replica = new JsonObject();
+            int applied = channel.applied.get();
+
+            replica.addProperty("url", channel.url);
+            replica.addProperty("applied", applied);
+            replica.addProperty("lag", current - applied);
+            replica.addProperty("pending", channel.pending.get());
+            replicas.add(replica);
+        }
+
+        return replicas;
+    }
+
+    /**
+     * Nested BinaryConnection class of the persistent socket of one sender, with its direct buffer.
+     * The socket listens on the port of the secondary plus the replication port offset,
+     * it is opened on the first batch and opened again after a failure.
+     * The answer is read with a timeout, so a stalled secondary fails the batch instead of holding the sender.
+     */
+    private static class BinaryConnection {
+        private final InetSocketAddress address;
+        private ByteBuffer frame;
+        private SocketChannel socket;
+        private DataInputStream answer; // read through the socket, which honours the timeout unlike the channel
+
+        /**
+         * Constructor of BinaryConnection.
+         *
+         * @param url
+         */
+        private BinaryConnection(String url) {
+            int separator = url.lastIndexOf(':');
+            int port = Integer.parseInt(url.substring(separator + 1)) +
+                    Integer.parseInt(EventServiceDriver.properties.get("replicationPortOffset"));
+
+            this.address = new InetSocketAddress(url.substring(0, separator), port);
+            this.frame = ByteBuffer.allocateDirect(64 * 1024);
+        }
+
+        /**
+         * Write the frame of a batch, and read the status the secondary answered.
+         *
+         * @param body
+         *      - the encoded frame with its length prefix
+         * @return int
+         * @throws IOException
+         *      - also when the answer times out
+         */
+        private int exchange(byte[] body) throws IOException {
+            try {
+                if (this.socket == null) {
+                    this.socket = SocketChannel.open();
+                    this.socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    this.socket.socket().connect(this.address, CONNECT_TIMEOUT);
+                    this.socket.socket().setSoTimeout(READ_TIMEOUT);
+                    this.answer = new DataInputStream(this.socket.socket().getInputStream());
+                }
+
+                if (this.frame.capacity() < body.length) {
+                    this.frame = ByteBuffer.allocateDirect(body.length);
+                }
+                this.frame.clear();
+                this.frame.put(body);
+                this.frame.flip();
+                while (this.frame.hasRemaining()) {
+                    this.socket.write(this.frame);
+                }
+
+                return this.answer.readInt();
+            }
+            catch (IOException ioe) {
+                close();
+                throw ioe;
+            }
+        }
+
+        /**
+         * Close the socket.
+         */
+        private void close() {
+            if (this.socket == null) {
+                return;
+            }
+
+            try {
+                this.socket.close();
+            }
+            catch (IOException ignored) {}
+            this.socket = null;
+            this.answer = null;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package EventService.MultithreadingProcess;
+
+import EventService.EventConcurrency.Operation;
+import com.google.gson.JsonObject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * ReplicationFrame class to encode a batch of replications into the binary format of the replication socket.
+ * A frame is length-prefixed, so the receiver knows how much to read before decoding it:
+ * <pre>
+ * frame     := length:int watermark:int credited:int count:int operation*
+ * create    := 0:byte timestamp:int uuid:long,long userid:int numtickets:int length:short eventname:UTF-8
+ * purchase  := 1:byte timestamp:int uuid:long,long userid:int eventid:int tickets:int
+ * abort     := 2:byte timestamp:int uuid:long,long userid:int eventid:int tickets:int
+ * refund    := 3:byte timestamp:int uuid:long,long userid:int eventid:int tickets:int
+ * </pre>
+ * The length counts the bytes after itself. The answer to a frame is the status code as an int.
+ */
+public class ReplicationFrame {
+    static final int HEADER = 4; // bytes of the length prefix
+    private static final byte CREATE = 0;
+    private static final byte PURCHASE = 1;
+    private static final byte ABORT = 2;
+    private static final byte REFUND = 3;
+    private static final int BASE_SIZE = 25; // type, timestamp, uuid, and userid of an operation
+
+    private final int watermark;
+    private final int credited;
+    private final List<Operation> operations;
+
+    /**
+     * Constructor of ReplicationFrame.
+     *
+     * @param watermark
+     * @param credited
+     * @param operations
+     */
+    private ReplicationFrame(int watermark, int credited, List<Operation> operations) {
+        this.watermark = watermark;
+        this.credited = credited;
+        this.operations = operations;
+    }
+
+    /**
+     * Encode the operations of a batch with the watermark and the delivered credits.
+     *
+     * @param watermark
+     * @param credited
+     * @param operations
+     *      - request bodies with their type and timestamp
+     * @return byte[]
+     */
+    static byte[] encode(int watermark, int credited, List<JsonObject> operations) {
+        List<byte[]> names = new ArrayList<>();
+        int size = HEADER + 12; // the length, the watermark, the credited, and the count
+
+        for (JsonObject operation : operations) {
+            if (operation.get("type").getAsString().equals(Operation.Type.CREATE.toString())) {
+                byte[] name = operation.get("eventname").getAsString().getBytes(StandardCharsets.UTF_8);
+                if (name.length > Short.MAX_VALUE) {
+                    throw new IllegalArgumentException("Event name is too long to replicate");
+                }
+
+                names.add(name);
+                size += BASE_SIZE + 6 + name.length;
+            }
+            else {
+                size += BASE_SIZE + 8;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(size - HEADER);
+        buffer.putInt(watermark);
+        buffer.putInt(credited);
+        buffer.putInt(operations.size());
+
+        int created = 0;
+        for (JsonObject operation : operations) {
+            String type = operation.get("type").getAsString();
+            boolean create = type.equals(Operation.Type.CREATE.toString());
+            UUID uuid = UUID.fromString(operation.get("uuid").getAsString());
+
+            buffer.put(create ? CREATE : typeOf(type));
+            buffer.putInt(operation.get("timestamp").getAsInt());
+            buffer.putLong(uuid.getMostSignificantBits());
+            buffer.putLong(uuid.getLeastSignificantBits());
+            buffer.putInt(operation.get("userid").getAsInt());
+
+            if (create) {
+                byte[] name = names.get(created++);
+                buffer.putInt(operation.get("numtickets").getAsInt());
+                buffer.putShort((short) name.length);
+                buffer.put(name);
+            }
+            else {
+                buffer.putInt(operation.get("eventid").getAsInt());
+                buffer.putInt(operation.get("tickets").getAsInt());
+            }
+        }
+
+        return buffer.array();
+    }
+
+    /**
+     * Return the type byte of an operation which has the layout of a purchase.
+     *
+     * @param type
+     * @return byte
+     */
+    private static byte typeOf(String type) {
+        if (type.equals(Operation.Type.ABORT.toString())) {
+            return ABORT;
+        }
+        if (type.equals(Operation.Type.REFUND.toString())) {
+            return REFUND;
+        }
+
+        return PURCHASE;
+    }
+
+    /**
+     * Decode a frame, from right after its length prefix to its end.
+     * The id of a created event is assigned by the secondary itself.
+     *
+     * @param buffer
+     * @return ReplicationFrame
+     */
+    static ReplicationFrame decode(ByteBuffer buffer) {
+        int watermark = buffer.getInt();
+        int credited = buffer.getInt();
+        int count = buffer.getInt();
+        List<Operation> operations = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            byte type = buffer.get();
+            int timestamp = buffer.getInt();
+            String uuid = new UUID(buffer.getLong(), buffer.getLong()).toString();
+            int userId = buffer.getInt();
+
+            if (type == CREATE) {
+                int numtickets = buffer.getInt();
+                byte[] name = new byte[buffer.getShort()];
+                buffer.get(name);
+                operations.add(Operation.create(timestamp, uuid, -1,
+                        new String(name, StandardCharsets.UTF_8), userId, numtickets));
+            }
+            else if (type == ABORT) {
+                int eventId = buffer.getInt();
+                operations.add(Operation.abort(timestamp, uuid, eventId, userId, buffer.getInt()));
+            }
+            else if (type == REFUND) {
+                int eventId = buffer.getInt();
+                operations.add(Operation.refund(timestamp, uuid, eventId, userId, buffer.getInt()));
+            }
+            else {
+                int eventId = buffer.getInt();
+                operations.add(Operation.purchase(timestamp, uuid, eventId, userId, buffer.getInt()));
+            }
+        }
+
+        return new ReplicationFrame(watermark, credited, operations);
+    }
+
+    /**
+     * Watermark getter.
+     *
+     * @return int
+     */
+    int getWatermark() {
+        return this.watermark;
+    }
+
+    /**
+     * Credited getter.
+     *
+     * @return int
+     */
+    int getCredited() {
+        return this.credited;
+    }
+
+    /**
+     * Operations getter.
+     *
+     * @return List
+     */
+    List<Operation> getOperations() {
+        return this.operations;
+    }
+}
@@ -0,0 +1,218 @@
+package EventService.MultithreadingProcess;
+
+import EventService.EventServiceDriver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ReplicationListener class for secondaries to receive the batches of the primary over persistent sockets.
+ * One selector thread reads the length-prefixed frames of every connection into direct buffers,
+ * and hands each decoded batch to the workers, which apply it like a batch posted to /replicate.
+ * A connection carries one batch at a time, it is read again once the answer of its batch has been written.
+ */
+public class ReplicationListener implements Runnable {
+    private static final int BUFFER_SIZE = 64 * 1024; // bytes, grown for a larger frame
+    private static final long SELECT_WAIT = 1000; // milliseconds to wait before checking the state again
+
+    private final int port;
+    private final ExecutorService workers;
+    private final ConcurrentLinkedQueue<Connection> answered;
+    private Selector selector;
+
+    /**
+     * Constructor of ReplicationListener.
+     *
+     * @param port
+     * @param workers
+     *      - threads applying the batches
+     */
+    public ReplicationListener(int port, int workers) {
+        this.port = port;
+        this.workers = Executors.newFixedThreadPool(workers);
+        this.answered = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * run method to start the operation.
+     */
+    @Override
+    public void run() {
+        try (Selector selector = Selector.open(); ServerSocketChannel server = ServerSocketChannel.open()) {
+            this.selector = selector;
+            server.bind(new InetSocketAddress(this.port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("[Replication] Listening for replications on port " + this.port);
+
+            while (EventServiceDriver.alive) {
+                selector.select(SELECT_WAIT);
+
+                Connection connection;
+                while ((connection = this.answered.poll()) != null) {
+                    connection.key.interestOps(SelectionKey.OP_WRITE);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try {
+                        if (key.isAcceptable()) {
+                            accept(server);
+                        }
+                        else if (key.isReadable()) {
+                            ((Connection) key.attachment()).read();
+                        }
+                        else if (key.isWritable()) {
+                            ((Connection) key.attachment()).write();
+                        }
+                    }
+                    catch (IOException | RuntimeException e) {
+                        System.out.println("[Replication] Closed replication connection: " + e.getMessage());
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            }
+        }
+        catch (IOException ioe) {
+            System.out.println("[Replication] Failed to listen on port " + this.port + ": " + ioe.getMessage());
+        }
+        finally {
+            this.workers.shutdown();
+        }
+    }
+
+    /**
+     * Accept a connection from the primary.
+     *
+     * @param server
+     * @throws IOException
+     */
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    /**
+     * Nested Connection class of one socket from the primary, with its direct buffers.
+     * Only the selector thread reads and writes the socket, the workers only hand the status back.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer answer;
+        private ByteBuffer frame;
+
+        /**
+         * Constructor of Connection.
+         *
+         * @param channel
+         * @param key
+         */
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+            this.answer = ByteBuffer.allocateDirect(4);
+            this.frame = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        /**
+         * Read from the socket, and start the batch once its frame is complete.
+         *
+         * @throws IOException
+         */
+        private void read() throws IOException {
+            if (this.channel.read(this.frame) == -1) {
+                throw new IOException("end of stream");
+            }
+
+            dispatch();
+        }
+
+        /**
+         * Decode the frame if it is complete, and hand the batch to the workers.
+         * The socket is not read meanwhile, so the next frame stays in the buffer until the answer is written.
+         */
+        private void dispatch() {
+            if (this.frame.position() < ReplicationFrame.HEADER) {
+                return;
+            }
+
+            int length = this.frame.getInt(0);
+            if (length + ReplicationFrame.HEADER > this.frame.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocateDirect(length + ReplicationFrame.HEADER);
+                this.frame.flip();
+                larger.put(this.frame);
+                this.frame = larger;
+                return;
+            }
+            if (this.frame.position() < length + ReplicationFrame.HEADER) {
+                return;
+            }
+
+            this.frame.flip();
+            this.frame.position(ReplicationFrame.HEADER);
+            ByteBuffer body = this.frame.slice();
+            body.limit(length);
+            ReplicationFrame batch = ReplicationFrame.decode(body);
+
+            // keep what has been read after the frame
+            this.frame.position(ReplicationFrame.HEADER + length);
+            this.frame.compact();
+
+            this.key.interestOps(0);
+            ReplicationListener.this.workers.execute(() -> new ReplicaBatch(batch.getWatermark(),
+                    batch.getCredited(), batch.getOperations(), ReplicationListener.this.workers,
+                    this::answer).schedule());
+        }
+
+        /**
+         * For a worker to hand the status of the batch over to the selector thread.
+         *
+         * @param status
+         */
+        private void answer(int status) {
+            this.answer.clear();
+            this.answer.putInt(status);
+            this.answer.flip();
+
+            ReplicationListener.this.answered.add(this);
+            ReplicationListener.this.selector.wakeup();
+        }
+
+        /**
+         * Write the answer, then read the next frame.
+         *
+         * @throws IOException
+         */
+        private void write() throws IOException {
+            this.channel.write(this.answer);
+            if (this.answer.hasRemaining()) {
+                return;
+            }
+
+            this.key.interestOps(SelectionKey.OP_READ);
+            dispatch();
+        }
+    }
+}
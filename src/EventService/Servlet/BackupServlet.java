@@ -1,5 +1,6 @@
 package EventService.Servlet;
 
+import EventService.EventConcurrency.Snapshot;
 import EventService.EventServiceDriver;
 import EventService.MultithreadingProcess.FullBackup;
 import Usage.State;
@@ -9,6 +10,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.PrintWriter;
 import java.net.HttpURLConnection;
+import java.nio.channels.Channels;
 
 /**
  * BackupServlet to handle the backup requests.
@@ -17,6 +19,7 @@ public class BackupServlet extends BaseServlet {
 
     /**
      * Reply the current data snapshot to secondaries.
+     * The local snapshot file is streamed if there is one, instead of encoding the data.
      *
      * @param request
      * @param response
@@ -28,7 +31,14 @@ public class BackupServlet extends BaseServlet {
         response.setContentType(EventServiceDriver.APP_TYPE);
         response.setStatus(HttpURLConnection.HTTP_BAD_REQUEST);
 
-        if (EventServiceDriver.state == State.PRIMARY) {
+        if (EventServiceDriver.state == State.PRIMARY && EventServiceDriver.eventList.hasSnapshotFile()) {
+            try (Snapshot snapshot = EventServiceDriver.eventList.openSnapshot()) {
+                response.setStatus(HttpURLConnection.HTTP_OK);
+                snapshot.transferTo(Channels.newChannel(response.getOutputStream()));
+            }
+            catch (Exception ignored) {}
+        }
+        else if (EventServiceDriver.state == State.PRIMARY) {
             try {
                 PrintWriter pw = response.getWriter();
                 FullBackup fb = new FullBackup();
@@ -43,6 +53,7 @@ public class BackupServlet extends BaseServlet {
 
     /**
      * Parse the request body and store the data into the current service.
+     * A body with "after" is the delta for a restarted service, otherwise it is a full backup.
      *
      * @param request
      * @param response
@@ -58,6 +69,13 @@ public class BackupServlet extends BaseServlet {
             String requestBody = parseRequest(request);
             JsonObject body = (JsonObject) parseJson(requestBody);
 
+            if (body.get("after") != null) {
+                if (EventServiceDriver.eventList.applyDelta(body)) {
+                    response.setStatus(HttpURLConnection.HTTP_OK);
+                }
+                return;
+            }
+
             EventServiceDriver.eventList.restoreData(body, true);
             response.setStatus(HttpURLConnection.HTTP_OK);
             System.out.println("[Backup] Data has been restored");
@@ -5,8 +5,10 @@ import EventService.MultithreadingProcess.Replication;
 import Usage.State;
 import com.google.gson.*;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -14,6 +16,7 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Abstract BaseServlet class to extends HttpServlet
@@ -89,13 +92,25 @@ public abstract class BaseServlet extends HttpServlet {
      * @throws IOException
      */
     public HttpURLConnection doPostRequest(String url, JsonObject body) throws IOException {
+        return doPostRequest(url, body.toString().getBytes());
+    }
+
+    /**
+     * Send a POST request with a body encoded already, so the same bytes can be sent to several services.
+     *
+     * @param url
+     * @param body
+     * @return HttpURLConnection
+     * @throws IOException
+     */
+    public HttpURLConnection doPostRequest(String url, byte[] body) throws IOException {
         HttpURLConnection connection = initConnection(url);
         connection.setRequestMethod("POST");
         connection.setRequestProperty("Content-Type", EventServiceDriver.APP_TYPE);
         connection.setDoOutput(true);
 
         OutputStream os = connection.getOutputStream();
-        os.write(body.toString().getBytes());
+        os.write(body);
         os.flush();
         os.close();
 
@@ -146,25 +161,105 @@ public abstract class BaseServlet extends HttpServlet {
     }
 
     /**
-     * Control the replication of non-primary nodes to be in order.
+     * Interface of a write applied by a servlet once its request is in order.
+     */
+    interface Write {
+        void apply(JsonObject body, HttpServletResponse response) throws Exception;
+    }
+
+    /**
+     * Control the replication of non-primary nodes to be in order, then apply the write.
+     * A replication arriving before its predecessor is suspended with AsyncContext and left in the reorder buffer,
+     * so it holds no thread while it waits, and it is resumed on the pool of Jetty once it is in order.
+     * When the buffer is full, the request is rejected for the primary to resend it.
+     * A write from the front end is applied at once.
      *
+     * @param request
+     * @param response
      * @param body
-     * @throws InterruptedException
+     * @param write
+     * @throws Exception
      */
-    void timestampBlock(JsonObject body) throws Exception {
+    void applyInOrder(HttpServletRequest request, HttpServletResponse response, JsonObject body, Write write)
+            throws Exception {
         if (body.get("timestamp") == null) {
+            write.apply(body, response);
             return;
         }
 
         int timestampFromPrimary = body.get("timestamp").getAsInt();
-        while (timestampFromPrimary - 1 > EventServiceDriver.lamportTimestamps.get()) {
-            System.out.println("[Block] Blocking request #" + timestampFromPrimary);
-            Thread.sleep(50);
+        if (request.isAsyncSupported()) {
+            AsyncContext context = request.startAsync();
+            context.setTimeout(0);
+
+            try {
+                if (EventServiceDriver.reorderBuffer.defer(timestampFromPrimary,
+                        () -> context.start(() -> resume(context, body, write)))) {
+                    return;
+                }
+            }
+            catch (RejectedExecutionException ree) {
+                System.out.println("[Reorder] Buffer is full, rejecting request #" + timestampFromPrimary);
+                response.setStatus(HttpURLConnection.HTTP_UNAVAILABLE);
+                context.complete();
+                return;
+            }
+
+            resume(context, body, write);
+            return;
+        }
+
+        EventServiceDriver.reorderBuffer.await(timestampFromPrimary);
+        applyReplication(body, response, write);
+    }
+
+    /**
+     * Apply a suspended replication and complete its request.
+     *
+     * @param context
+     * @param body
+     * @param write
+     */
+    private void resume(AsyncContext context, JsonObject body, Write write) {
+        try {
+            applyReplication(body, (HttpServletResponse) context.getResponse(), write);
         }
+        catch (Exception ignored) {}
+        finally {
+            context.complete();
+        }
+    }
 
+    /**
+     * Apply a replication which is in order.
+     *
+     * @param body
+     * @param response
+     * @param write
+     * @throws Exception
+     */
+    private void applyReplication(JsonObject body, HttpServletResponse response, Write write) throws Exception {
         if (EventServiceDriver.state == State.PRIMARY) {
             throw new Exception(); // abort since the request will be resend by frontend again
         }
+
+        followWatermark(body);
+        write.apply(body, response);
+    }
+
+    /**
+     * For secondaries to follow the watermark of the primary, so the committed log can be compacted,
+     * and to drop the credits the primary has delivered.
+     *
+     * @param body
+     */
+    void followWatermark(JsonObject body) {
+        if (body.get("watermark") != null) {
+            EventServiceDriver.eventList.advanceWatermark(body.get("watermark").getAsInt());
+        }
+        if (body.get("credited") != null) {
+            EventServiceDriver.eventList.dropCredits(body.get("credited").getAsInt());
+        }
     }
 
     /**
@@ -32,38 +32,52 @@ public class CreateServlet extends BaseServlet {
         try {
             String requestBody = parseRequest(request);
             JsonObject body = (JsonObject) parseJson(requestBody);
+            String uri = request.getRequestURI();
 
             // for secondary to check the order of the timestamp
-            timestampBlock(body);
+            applyInOrder(request, response, body, (b, r) -> create(uri, b, r));
+        }
+        catch (Exception ignored) {}
+    }
+
+    /**
+     * Create the event, then replicate it on primary.
+     *
+     * @param uri
+     * @param body
+     * @param response
+     * @throws Exception
+     */
+    private void create(String uri, JsonObject body, HttpServletResponse response) throws Exception {
+        String uuid = body.get("uuid").getAsString();
+        String eventName = body.get("eventname").getAsString();
+        int createUserId = body.get("userid").getAsInt();
+        int numtickets = body.get("numtickets").getAsInt();
 
-            String uuid = body.get("uuid").getAsString();
-            String eventName = body.get("eventname").getAsString();
-            int createUserId = body.get("userid").getAsInt();
-            int numtickets = body.get("numtickets").getAsInt();
+        List<Integer> timestamp = new ArrayList<>();
+        if (EventServiceDriver.state != State.PRIMARY) {
+            timestamp.add(body.get("timestamp").getAsInt());
+        }
 
-            List<Integer> timestamp = new ArrayList<>();
-            if (EventServiceDriver.state != State.PRIMARY) {
-                timestamp.add(body.get("timestamp").getAsInt());
-            }
+        /*
+        Pass a container into add method so we can retrieve the timestamp.
+        Generate a Lamport Timestamp right after creating the new event.
+         */
+        int eventId = EventServiceDriver.eventList.add(uuid, eventName, createUserId, numtickets, timestamp);
 
-            /*
-            Pass a container into add method so we can retrieve the timestamp.
-            Generate a Lamport Timestamp right after creating the new event.
-             */
-            int eventId = EventServiceDriver.eventList.add(uuid, eventName, createUserId, numtickets, timestamp);
+        // respond only after the new event is durable in the write-ahead log
+        if (eventId > -1) {
+            EventServiceDriver.eventList.awaitDurable();
 
-            if (eventId > -1) {
-                // for primary to start the replication
-                primaryReplication(request.getRequestURI(), body, timestamp.get(0));
+            // for primary to start the replication
+            primaryReplication(uri, body, timestamp.get(0));
 
-                // response after completing replication
-                PrintWriter pw = response.getWriter();
-                JsonObject responseBody = getJSONResponse(eventId);
-                response.setStatus(HttpURLConnection.HTTP_OK);
-                pw.println(responseBody.toString());
-            }
+            // response after completing replication
+            PrintWriter pw = response.getWriter();
+            JsonObject responseBody = getJSONResponse(eventId);
+            response.setStatus(HttpURLConnection.HTTP_OK);
+            pw.println(responseBody.toString());
         }
-        catch (Exception ignored) {}
     }
 
     /**
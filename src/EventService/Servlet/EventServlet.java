@@ -2,11 +2,9 @@ package EventService.Servlet;
 
 import EventService.EventConcurrency.Event;
 import EventService.EventServiceDriver;
-import com.google.gson.JsonObject;
-
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 
 /**
@@ -15,7 +13,7 @@ import java.net.HttpURLConnection;
 public class EventServlet extends BaseServlet {
 
     /**
-     * doGet method to response the event information.
+     * doGet method to response the event information with its cached encoded bytes.
      *
      * @param request
      * @param response
@@ -32,11 +30,12 @@ public class EventServlet extends BaseServlet {
             Event event = EventServiceDriver.eventList.get(eventId);
 
             if (event != null) {
-                PrintWriter pw = response.getWriter();
-                JsonObject responseBody = event.toJsonObject();
+                ServletOutputStream os = response.getOutputStream();
+                byte[] responseBody = event.toJsonBytes();
 
                 response.setStatus(HttpURLConnection.HTTP_OK);
-                pw.println(responseBody.toString());
+                response.setContentLength(responseBody.length);
+                os.write(responseBody);
             }
         }
         catch (Exception ignored) {}
@@ -55,7 +55,10 @@ public class GreetServlet extends BaseServlet {
 
         switch (uri) {
             case "/greet/event":
-                addToEventServiceList(address);
+                // a restarted service reports the last timestamp it still holds, and the uuid of its operation
+                int timestamp = (body.get("timestamp") == null) ? 0 : body.get("timestamp").getAsInt();
+                String uuid = (body.get("uuid") == null) ? null : body.get("uuid").getAsString();
+                addToEventServiceList(address, timestamp, uuid);
                 break;
             case "/greet/frontend":
                 addToFrontEndServiceList(address);
@@ -69,15 +72,17 @@ public class GreetServlet extends BaseServlet {
      * Add address into event service list.
      *
      * @param address
+     * @param timestamp
+     * @param uuid
      */
-    private void addToEventServiceList(String address) {
+    private void addToEventServiceList(String address, int timestamp, String uuid) {
         if (!EventServiceDriver.eventServiceList.contains(address)) {
             System.out.println("[Servlet] Added " + address + " into event service list");
             EventServiceDriver.eventServiceList.addService(address);
 
             if (EventServiceDriver.state == State.PRIMARY) {
                 FullBackup fb = new FullBackup();
-                fb.startBackup(address);
+                fb.startBackup(address, timestamp, uuid);
             }
         }
     }
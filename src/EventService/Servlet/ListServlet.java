@@ -2,19 +2,24 @@ package EventService.Servlet;
 
 import EventService.EventServiceDriver;
 
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * ListServlet class to handle the request for the list of events.
  */
 public class ListServlet extends BaseServlet {
+    static final String NEXT_CURSOR = "X-Next-After";
 
     /**
      * doGet method to response the list of events.
+     * Without parameters, response the whole list with the pre-encoded bytes.
+     * With after, limit, or fields, stream one page of the list and set the cursor of next page into header.
      *
      * @param request
      * @param response
@@ -27,12 +32,52 @@ public class ListServlet extends BaseServlet {
         response.setStatus(HttpURLConnection.HTTP_BAD_REQUEST);
 
         try {
-            PrintWriter pw = response.getWriter();
-            String responseBody = EventServiceDriver.eventList.toJsonArray().toString();
+            String after = request.getParameter("after");
+            String limit = request.getParameter("limit");
+            String fields = request.getParameter("fields");
 
-            response.setStatus(HttpURLConnection.HTTP_OK);
-            pw.println(responseBody);
+            if (after == null && limit == null && fields == null) {
+                ServletOutputStream os = response.getOutputStream();
+                byte[] responseBody = EventServiceDriver.eventList.toJsonBytes();
+
+                response.setStatus(HttpURLConnection.HTTP_OK);
+                response.setContentLength(responseBody.length);
+                os.write(responseBody);
+            }
+            else {
+                writePage(response, (after == null) ? -1 : Integer.parseInt(after),
+                        (limit == null) ? Integer.MAX_VALUE : Integer.parseInt(limit),
+                        (fields == null) ? null : Arrays.asList(fields.split(",")));
+            }
+        }
+        catch (IOException | NumberFormatException ignored) {}
+    }
+
+    /**
+     * Stream the events after the cursor, at most limit of them.
+     *
+     * @param response
+     * @param after
+     * @param limit
+     * @param fields
+     * @throws IOException
+     */
+    private void writePage(HttpServletResponse response, int after, int limit, List<String> fields)
+            throws IOException {
+        if (after < -1 || limit < 0) {
+            return;
+        }
+
+        int size = EventServiceDriver.eventList.size();
+        int from = after + 1;
+        int to = (int) Math.min(size, (long) from + limit);
+
+        if (to < size) {
+            response.setHeader(NEXT_CURSOR, String.valueOf(to - 1));
         }
-        catch (IOException ignored) {}
+
+        ServletOutputStream os = response.getOutputStream();
+        response.setStatus(HttpURLConnection.HTTP_OK);
+        EventServiceDriver.eventList.writeJsonArray(os, from, to, fields);
     }
 }
@@ -2,12 +2,12 @@ package EventService.Servlet;
 
 import EventService.EventConcurrency.Event;
 import EventService.EventServiceDriver;
+import EventService.MultithreadingProcess.PurchaseCombiner;
 import Usage.State;
 import com.google.gson.JsonObject;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.List;
@@ -19,8 +19,8 @@ public class PurchaseServlet extends BaseServlet {
 
     /**
      * doPost to purchase tickets.
-     * After purchased, send a POST request to User Service to add tickets into a user's account.
-     * If the User Service response with 400, rollback the tickets just purchased.
+     * On primary, the purchase goes through PurchaseCombiner, which reserves and confirms the tickets,
+     * the credit into the user's account is delivered from the outbox afterwards.
      *
      * @param request
      * @param response
@@ -35,83 +35,50 @@ public class PurchaseServlet extends BaseServlet {
         try {
             String requestBody = parseRequest(request);
             JsonObject body = (JsonObject) parseJson(requestBody);
+            String uri = request.getRequestURI();
 
             // for secondary to check the order of the timestamp
-            timestampBlock(body);
-
-            String uuid = body.get("uuid").getAsString();
-            int eventIdURI = Integer.parseInt(request.getRequestURI().replaceFirst("/purchase/", ""));
-            int eventId = body.get("eventid").getAsInt();
-            int userId = body.get("userid").getAsInt();
-            int tickets = body.get("tickets").getAsInt();
-
-            if (eventIdURI == eventId && tickets > 0) {
-                Event event = EventServiceDriver.eventList.get(eventId);
-
-                if (event != null) {
-                    List<Integer> timestamp = new ArrayList<>();
-                    if (EventServiceDriver.state == State.PRIMARY) {
-                        // secondary won't rollback, so no need to lock the Lamport timestamp for the entire write
-                        EventServiceDriver.lamportTimestamps.lockWrite();
-                    }
-                    else {
-                        // for checking the match between uuid and timestamp
-                        timestamp.add(body.get("timestamp").getAsInt());
-                    }
-
-                    boolean success = event.purchase(uuid, tickets, timestamp);
-
-                    if (success && EventServiceDriver.state == State.PRIMARY) {
-                        int responseCode = doPostUserTickets(userId, eventId, tickets);
-
-                        if (responseCode == HttpURLConnection.HTTP_OK) {
-                            // for primary to start the replication
-                            primaryReplication(request.getRequestURI(), body, timestamp.get(0));
-                            response.setStatus(responseCode);
-                        }
-                        else { // rollback
-                            tickets *= -1;
-                            event.purchase(uuid, tickets, timestamp);
-                        }
-                    }
-                    else if (success) {
-                        response.setStatus(HttpURLConnection.HTTP_OK);
-                    }
-
-                    if (EventServiceDriver.state == State.PRIMARY) {
-                        EventServiceDriver.lamportTimestamps.unlockWrite();
-                    }
-                }
-            }
+            applyInOrder(request, response, body, (b, r) -> purchase(uri, b, r));
         }
         catch (Exception ignored) {}
     }
 
     /**
-     * Send a POST request to User Service to add tickets
-     * into user's account and get the response code.
+     * Purchase the tickets, through PurchaseCombiner on primary.
      *
-     * @param userId
-     * @param eventId
-     * @param tickets
-     * @return int
+     * @param uri
+     * @param body
+     * @param response
      */
-    private int doPostUserTickets(int userId, int eventId, int tickets) {
-        String primaryUser = EventServiceDriver.primaryUserService;
-        String url = primaryUser + "/" + userId + "/tickets/add";
-        JsonObject body = new JsonObject();
-        body.addProperty("eventid", eventId);
-        body.addProperty("tickets", tickets);
+    private void purchase(String uri, JsonObject body, HttpServletResponse response) {
+        String uuid = body.get("uuid").getAsString();
+        int eventIdURI = Integer.parseInt(uri.replaceFirst("/purchase/", ""));
+        int eventId = body.get("eventid").getAsInt();
+        int userId = body.get("userid").getAsInt();
+        int tickets = body.get("tickets").getAsInt();
+
+        if (eventIdURI == eventId && tickets > 0) {
+            Event event = EventServiceDriver.eventList.get(eventId);
+
+            if (event != null) {
+                if (EventServiceDriver.state == State.PRIMARY) {
+                    // concurrent purchases of the event are applied and replicated as a group
+                    response.setStatus(PurchaseCombiner.purchase(eventId, event, uri, body, uuid, userId, tickets));
+                    return;
+                }
 
-        int responseCode;
-        try {
-            HttpURLConnection connection = doPostRequest(url, body);
-            responseCode = connection.getResponseCode();
-        }
-        catch (IOException ignored) {
-            responseCode = HttpURLConnection.HTTP_BAD_REQUEST;
-        }
+                // for checking the match between uuid and timestamp
+                List<Integer> timestamp = new ArrayList<>();
+                timestamp.add(body.get("timestamp").getAsInt());
 
-        return responseCode;
+                boolean success = event.purchase(uuid, userId, tickets, timestamp);
+
+                // wait for the group commit of the write-ahead log
+                EventServiceDriver.eventList.awaitDurable();
+                if (success) {
+                    response.setStatus(HttpURLConnection.HTTP_OK);
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,74 @@
+package EventService.Servlet;
+
+import EventService.EventServiceDriver;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * QueryServlet class to handle the indexed queries of events.
+ */
+public class QueryServlet extends BaseServlet {
+
+    /**
+     * doGet method to response the events matching exactly one of creator, available, or prefix.
+     * The result is ordered by eventId, except prefix which is ordered by name,
+     * and the cursor of next page is set into header when the page is full.
+     *
+     * @param request
+     * @param response
+     */
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) {
+        System.out.println("[Servlet] GET request /query");
+
+        response.setContentType(EventServiceDriver.APP_TYPE);
+        response.setStatus(HttpURLConnection.HTTP_BAD_REQUEST);
+
+        try {
+            String creator = request.getParameter("creator");
+            String available = request.getParameter("available");
+            String prefix = request.getParameter("prefix");
+            String after = request.getParameter("after");
+            String limit = request.getParameter("limit");
+            String fields = request.getParameter("fields");
+
+            int afterId = (after == null) ? -1 : Integer.parseInt(after);
+            int limitNum = (limit == null) ? Integer.MAX_VALUE : Integer.parseInt(limit);
+            if (afterId < -1 || limitNum < 0) {
+                return;
+            }
+
+            List<Integer> eventIds;
+            boolean paged = true;
+            if (creator != null && available == null && prefix == null) {
+                eventIds = EventServiceDriver.eventList.findByCreator(Integer.parseInt(creator), afterId, limitNum);
+            }
+            else if (available != null && creator == null && prefix == null && available.equals("true")) {
+                eventIds = EventServiceDriver.eventList.findAvailable(afterId, limitNum);
+            }
+            else if (prefix != null && creator == null && available == null && after == null) {
+                eventIds = EventServiceDriver.eventList.findByNamePrefix(prefix, limitNum);
+                paged = false;
+            }
+            else {
+                return;
+            }
+
+            if (paged && !eventIds.isEmpty() && eventIds.size() == limitNum) {
+                response.setHeader(ListServlet.NEXT_CURSOR, String.valueOf(eventIds.get(eventIds.size() - 1)));
+            }
+
+            ServletOutputStream os = response.getOutputStream();
+            response.setStatus(HttpURLConnection.HTTP_OK);
+            EventServiceDriver.eventList.writeJsonArray(os, eventIds,
+                    (fields == null) ? null : Arrays.asList(fields.split(",")));
+        }
+        catch (IOException | NumberFormatException ignored) {}
+    }
+}
@@ -0,0 +1,104 @@
+package EventService.Servlet;
+
+import EventService.EventConcurrency.Operation;
+import EventService.EventServiceDriver;
+import EventService.MultithreadingProcess.ReplicaBatch;
+import Usage.State;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ReplicateServlet class for secondaries to apply a batch of replications from the primary.
+ * The request is suspended with AsyncContext while its operations wait in the reorder buffer,
+ * and answered once all of them are applied and durable.
+ */
+public class ReplicateServlet extends BaseServlet {
+
+    /**
+     * doPost method to apply a batch of replications.
+     *
+     * @param request
+     * @param response
+     */
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response) {
+        System.out.println("[Servlet] POST request /replicate");
+
+        response.setContentType(EventServiceDriver.APP_TYPE);
+        response.setStatus(HttpURLConnection.HTTP_BAD_REQUEST);
+
+        try {
+            String requestBody = parseRequest(request);
+            JsonObject body = (JsonObject) parseJson(requestBody);
+
+            if (EventServiceDriver.state == State.PRIMARY) {
+                return; // abort since the request will be resend by frontend again
+            }
+
+            if (request.isAsyncSupported()) {
+                AsyncContext context = request.startAsync();
+                context.setTimeout(0);
+
+                new ReplicaBatch(body.get("watermark").getAsInt(), body.get("credited").getAsInt(), operations(body),
+                        context::start, status -> {
+                            ((HttpServletResponse) context.getResponse()).setStatus(status);
+                            context.complete();
+                        }).schedule();
+                return;
+            }
+
+            boolean success = true;
+            for (Operation operation : operations(body)) {
+                EventServiceDriver.reorderBuffer.await(operation.getTimestamp());
+                success &= ReplicaBatch.apply(operation);
+            }
+
+            followWatermark(body);
+            EventServiceDriver.eventList.awaitAllDurable();
+            if (success) {
+                response.setStatus(HttpURLConnection.HTTP_OK);
+            }
+        }
+        catch (Exception ignored) {}
+    }
+
+    /**
+     * Return the operations of the batch.
+     * The id of a created event is assigned by the secondary itself.
+     *
+     * @param body
+     * @return List
+     */
+    private static List<Operation> operations(JsonObject body) {
+        JsonArray array = body.getAsJsonArray("operations");
+        List<Operation> operations = new ArrayList<>(array.size());
+
+        for (int i = 0; i < array.size(); i++) {
+            JsonObject operation = array.get(i).getAsJsonObject();
+
+            if (operation.get("type").getAsString().equals(Operation.Type.CREATE.toString())) {
+                operations.add(Operation.create(operation.get("timestamp").getAsInt(),
+                        operation.get("uuid").getAsString(), -1, operation.get("eventname").getAsString(),
+                        operation.get("userid").getAsInt(), operation.get("numtickets").getAsInt()));
+            }
+            else if (operation.get("type").getAsString().equals(Operation.Type.ABORT.toString()) ||
+                    operation.get("type").getAsString().equals(Operation.Type.REFUND.toString())) {
+                operations.add(Operation.fromJsonObject(operation));
+            }
+            else {
+                operations.add(Operation.purchase(operation.get("timestamp").getAsInt(),
+                        operation.get("uuid").getAsString(), operation.get("eventid").getAsInt(),
+                        operation.get("userid").getAsInt(), operation.get("tickets").getAsInt()));
+            }
+        }
+
+        return operations;
+    }
+}
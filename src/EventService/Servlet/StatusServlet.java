@@ -0,0 +1,46 @@
+package EventService.Servlet;
+
+import EventService.EventServiceDriver;
+import EventService.MultithreadingProcess.ReplicationChannel;
+import com.google.gson.JsonObject;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+
+/**
+ * StatusServlet class to handle the request for the replication status of the event service.
+ */
+public class StatusServlet extends BaseServlet {
+
+    /**
+     * doGet method to response the state, the Lamport Timestamp, the metrics of the reorder buffer,
+     * and on primary the acknowledgement mode and the last timestamp applied by each secondary.
+     *
+     * @param request
+     * @param response
+     */
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) {
+        System.out.println("[Servlet] GET request /status");
+
+        response.setContentType(EventServiceDriver.APP_TYPE);
+        response.setStatus(HttpURLConnection.HTTP_BAD_REQUEST);
+
+        try {
+            JsonObject responseBody = new JsonObject();
+            responseBody.addProperty("state", EventServiceDriver.state.toString());
+            responseBody.addProperty("timestamp", EventServiceDriver.lamportTimestamps.get());
+            responseBody.add("reorder", EventServiceDriver.reorderBuffer.toJsonObject());
+            responseBody.addProperty("ack", EventServiceDriver.properties.get("replicationAck"));
+            responseBody.add("replicas", ReplicationChannel.toJsonArray());
+
+            PrintWriter pw = response.getWriter();
+            response.setStatus(HttpURLConnection.HTTP_OK);
+            pw.println(responseBody.toString());
+        }
+        catch (IOException ignored) {}
+    }
+}
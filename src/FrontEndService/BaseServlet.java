@@ -2,10 +2,12 @@ package FrontEndService;
 
 import com.google.gson.*;
 
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
@@ -140,4 +142,22 @@ public abstract class BaseServlet extends HttpServlet {
             System.out.println("[Servlet] request with uuid: " + uuid + " has failed 3 times");
         }
     }
+
+    /**
+     * Copy the response body of the connection into the output stream.
+     *
+     * @param connection
+     * @param os
+     * @throws IOException
+     */
+    void copyStream(HttpURLConnection connection, ServletOutputStream os) throws IOException {
+        byte[] buffer = new byte[8192];
+
+        try (InputStream in = connection.getInputStream()) {
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                os.write(buffer, 0, length);
+            }
+        }
+    }
 }
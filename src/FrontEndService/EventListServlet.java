@@ -1,19 +1,19 @@
 package FrontEndService;
 
-import com.google.gson.JsonArray;
-
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 
 /**
  * EventListServlet class to handle request for getting event list.
  */
 public class EventListServlet extends BaseServlet {
+    private static final String NEXT_CURSOR = "X-Next-After";
 
     /**
      * doGet method to send a GET request to Event Service to get the list of events.
+     * The query of pagination and projection is passed through,
+     * and the response body is streamed back without parsing.
      *
      * @param request
      * @param response
@@ -27,14 +27,18 @@ public class EventListServlet extends BaseServlet {
 
         try {
             String url = FrontEndServiceDriver.primaryEventService + "/list";
+            if (request.getQueryString() != null) {
+                url += "?" + request.getQueryString();
+            }
             HttpURLConnection connection = doGetRequest(url);
 
             if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                PrintWriter pw = response.getWriter();
-                JsonArray responseBody = (JsonArray) parseResponse(connection);
+                if (connection.getHeaderField(NEXT_CURSOR) != null) {
+                    response.setHeader(NEXT_CURSOR, connection.getHeaderField(NEXT_CURSOR));
+                }
 
                 response.setStatus(HttpURLConnection.HTTP_OK);
-                pw.println(responseBody.toString());
+                copyStream(connection, response.getOutputStream());
             }
         }
         catch (Exception ignored) {}
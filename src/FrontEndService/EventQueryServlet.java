@@ -0,0 +1,45 @@
+package FrontEndService;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.net.HttpURLConnection;
+
+/**
+ * EventQueryServlet class to handle request for the indexed queries of events.
+ */
+public class EventQueryServlet extends BaseServlet {
+    private static final String NEXT_CURSOR = "X-Next-After";
+
+    /**
+     * doGet method to send a GET request to Event Service to query the events.
+     * The query is passed through, and the response body is streamed back without parsing.
+     *
+     * @param request
+     * @param response
+     */
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) {
+        System.out.println("[Servlet] GET request /events/query");
+
+        response.setContentType(FrontEndServiceDriver.APP_TYPE);
+        response.setStatus(HttpURLConnection.HTTP_BAD_REQUEST);
+
+        try {
+            String url = FrontEndServiceDriver.primaryEventService + "/query";
+            if (request.getQueryString() != null) {
+                url += "?" + request.getQueryString();
+            }
+            HttpURLConnection connection = doGetRequest(url);
+
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                if (connection.getHeaderField(NEXT_CURSOR) != null) {
+                    response.setHeader(NEXT_CURSOR, connection.getHeaderField(NEXT_CURSOR));
+                }
+
+                response.setStatus(HttpURLConnection.HTTP_OK);
+                copyStream(connection, response.getOutputStream());
+            }
+        }
+        catch (Exception ignored) {}
+    }
+}
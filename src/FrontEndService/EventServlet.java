@@ -65,6 +65,10 @@ public class EventServlet extends BaseServlet {
             String url = FrontEndServiceDriver.primaryEventService + "/" + arguments[1] + "/" + arguments[0];
             String uuid = UUID.randomUUID().toString();
             JsonObject newRequestBody = getNewRequestBody(arguments, tickets, uuid);
+            if (body.get("ack") != null) {
+                // the acknowledgement mode of the replication asked by the client
+                newRequestBody.add("ack", body.get("ack"));
+            }
 
             int failure = 0;
             while (failure < 3) {
@@ -87,6 +87,7 @@ public class FrontEndServiceDriver {
         ServletHandler servHandler = new ServletHandler();
 
         servHandler.addServletWithMapping(EventListServlet.class, "/events");
+        servHandler.addServletWithMapping(EventQueryServlet.class, "/events/query");
         servHandler.addServletWithMapping(EventServlet.class, "/events/*");
         servHandler.addServletWithMapping(EventCreateServlet.class, "/events/create");
         servHandler.addServletWithMapping(UserServlet.class, "/users/*");
@@ -0,0 +1,67 @@
+package Usage;
+
+/**
+ * AckMode enum to specify how many secondaries have to answer a replication before the primary responds.
+ */
+public enum AckMode {
+
+    ALL("all"),
+    MAJORITY("majority"),
+    ASYNC("async");
+
+    private final String message;
+
+    /**
+     * Constructor of AckMode.
+     *
+     * @param message
+     */
+    AckMode(String message) {
+        this.message = message;
+    }
+
+    /**
+     * Return the mode of the message.
+     *
+     * @param message
+     * @return AckMode
+     * @throws IllegalArgumentException if there is no such mode
+     */
+    public static AckMode of(String message) {
+        for (AckMode mode : AckMode.values()) {
+            if (mode.message.equals(message)) {
+                return mode;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown acknowledgement mode: " + message);
+    }
+
+    /**
+     * Return how many of the secondaries have to answer.
+     * The primary counts as one replica of the majority.
+     *
+     * @param secondaries
+     * @return int
+     */
+    public int required(int secondaries) {
+        switch (this) {
+            case ALL:
+                return secondaries;
+            case MAJORITY:
+                return (secondaries + 1) / 2;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Return the mode.
+     *
+     * @return String
+     */
+    @Override
+    public String toString() {
+        return this.message;
+    }
+}
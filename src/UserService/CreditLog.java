@@ -0,0 +1,59 @@
+package UserService;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe CreditLog data structure to remember the uuids of the credits already added,
+ * so a credit resent by the Event Service is only added once.
+ * Only the most recent uuids are kept, since a credit is only resent while the outbox of the primary still holds it,
+ * and the oldest uuid is forgotten once the log is full.
+ */
+public class CreditLog {
+    private static final int CAPACITY = 1 << 20; // uuids remembered, far more than an outbox resends
+
+    private final ReentrantReadWriteLock lock;
+    private final Set<String> uuids;
+
+    /**
+     * Constructor of CreditLog.
+     */
+    public CreditLog() {
+        this.lock = new ReentrantReadWriteLock();
+        this.uuids = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > CAPACITY;
+            }
+        });
+    }
+
+    /**
+     * Synchronized add method to claim the uuid of a credit.
+     *
+     * @param uuid
+     * @return boolean
+     *      - false if the credit has been added before
+     */
+    public boolean add(String uuid) {
+        this.lock.writeLock().lock();
+        boolean result = this.uuids.add(uuid);
+        this.lock.writeLock().unlock();
+
+        return result;
+    }
+
+    /**
+     * Synchronized remove method to give the uuid up when the credit fails.
+     *
+     * @param uuid
+     */
+    public void remove(String uuid) {
+        this.lock.writeLock().lock();
+        this.uuids.remove(uuid);
+        this.lock.writeLock().unlock();
+    }
+}
@@ -0,0 +1,59 @@
+package UserService;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+
+/**
+ * CreditServlet class to handle a batch of credits from the outbox of the Event Service.
+ */
+public class CreditServlet extends BaseServlet {
+
+    /**
+     * doPost method to add the tickets of every credit into the user's account and response with the refused ones.
+     * A credit is tagged with the uuid of its purchase, one added before is skipped,
+     * and a credit of an unknown user is refused, so a resend never fails the batch.
+     *
+     * @param request
+     * @param response
+     */
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response) {
+        System.out.println("request: POST /credits");
+
+        response.setContentType(UserServiceDriver.appType);
+        response.setStatus(400);
+
+        try {
+            String requestBody = parseRequest(request);
+            JsonObject body = parseJSON(requestBody);
+            JsonArray refused = new JsonArray();
+
+            for (JsonElement element : body.getAsJsonArray("credits")) {
+                JsonObject credit = element.getAsJsonObject();
+                String uuid = credit.get("uuid").getAsString();
+                int userId = credit.get("userid").getAsInt();
+
+                boolean success = UserServiceDriver.userList.contains(userId) &&
+                        new UserTicket(userId).add(credit.get("eventid").getAsInt(),
+                                credit.get("tickets").getAsInt(), uuid);
+
+                if (!success) {
+                    refused.add(uuid);
+                }
+            }
+
+            JsonObject responseBody = new JsonObject();
+            responseBody.add("refused", refused);
+
+            PrintWriter pw = response.getWriter();
+            response.setStatus(200);
+            pw.println(responseBody.toString());
+        }
+        catch (Exception ignored) {}
+    }
+}
@@ -14,6 +14,7 @@ import java.util.*;
 public class UserServiceDriver {
     static final String appType = "application/json";
     static UserList userList;
+    static CreditLog creditLog;
     static Map<String, String> hosts;
 
     /**
@@ -23,6 +24,7 @@ public class UserServiceDriver {
      */
     public static void main(String[] args) {
         UserServiceDriver.userList = new UserList();
+        UserServiceDriver.creditLog = new CreditLog();
         UserServiceDriver.hosts = new HashMap<>();
         UserServiceDriver.loadConfig();
 
@@ -31,6 +33,7 @@ public class UserServiceDriver {
         ServletHandler servHandler = new ServletHandler();
 
         servHandler.addServletWithMapping(new ServletHolder(new CreateServlet()), "/create");
+        servHandler.addServletWithMapping(new ServletHolder(new CreditServlet()), "/credits");
         servHandler.addServletWithMapping(new ServletHolder(new UserServlet()), "/*");
 
         try {
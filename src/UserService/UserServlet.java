@@ -69,7 +69,9 @@ public class UserServlet extends BaseServlet {
                 boolean success = false;
                 UserTicket uTicket = new UserTicket(userId);
                 if (args[3].equals("add")) {
-                    success = uTicket.add(eventId, tickets);
+                    // a credit tagged with the uuid of its purchase is only added once
+                    String uuid = (body.get("uuid") == null) ? null : body.get("uuid").getAsString();
+                    success = uTicket.add(eventId, tickets, uuid);
                 }
                 else if (args[3].equals("transfer")) {
                     int targetUser = body.get("targetuser").getAsInt();
@@ -24,8 +24,28 @@ public class UserTicket {
      *      - success or not
      */
     public boolean add(int eventId, int tickets) {
+        return add(eventId, tickets, null);
+    }
+
+    /**
+     * Add method to add tickets into a user's account once for the uuid of the purchase.
+     * A uuid added before is a resend, it succeeds without adding the tickets again.
+     *
+     * @param eventId
+     * @param tickets
+     * @param uuid
+     *      - null to add without the check
+     * @return boolean
+     *      - success or not
+     */
+    public boolean add(int eventId, int tickets, String uuid) {
         boolean result;
 
+        if (uuid != null && !UserServiceDriver.creditLog.add(uuid)) {
+            System.out.println("Credit with uuid: " + uuid + " has been added before");
+            return true;
+        }
+
         try {
             User user = UserServiceDriver.userList.get(this.userId);
             user.addTicket(tickets, eventId);
@@ -33,6 +53,10 @@ public class UserTicket {
         }
         catch (Exception ignored) {
             result = false;
+
+            if (uuid != null) {
+                UserServiceDriver.creditLog.remove(uuid);
+            }
         }
 
         return result;